@@ -0,0 +1,108 @@
+package org.elbadry;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The crawler's parse stage on recorded pages: building the DOM, then the
+ * link extraction, title and text the crawler takes from it, against the
+ * single-pass streaming extractor, with and without main-content
+ * extraction. Run with {@code -prof gc} for the bytes
+ * allocated per page.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+    private static final String BASE_URI = "https://geeksblabla.community/";
+
+    @Param({"home.html", "blog-article.html", "podcast-listing.html"})
+    String fixture;
+
+    private String html;
+    private Document document;
+
+    @Setup
+    public void setup() throws IOException {
+        try (InputStream input = ParseBenchmark.class.getResourceAsStream("/fixtures/" + fixture)) {
+            if (input == null) {
+                throw new IOException("Missing fixture " + fixture);
+            }
+            html = new String(input.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        document = Jsoup.parse(html, BASE_URI);
+    }
+
+    @Benchmark
+    public Document parse() {
+        return Jsoup.parse(html, BASE_URI);
+    }
+
+    @Benchmark
+    public void extractLinks(Blackhole blackhole) {
+        blackhole.consume(Crawler.extractLinks(document));
+    }
+
+    /**
+     * Everything the parse stage does per page
+     */
+    @Benchmark
+    public void parsePage(Blackhole blackhole) {
+        Document doc = Jsoup.parse(html, BASE_URI);
+        blackhole.consume(Crawler.extractLinks(doc));
+        blackhole.consume(doc.title());
+        blackhole.consume(doc.text());
+    }
+
+    /**
+     * Everything the jsoup path keeps per page, including the rel=canonical lookup
+     */
+    @Benchmark
+    public ExtractedPage jsoupExtract() {
+        return Crawler.extract(Jsoup.parse(html, BASE_URI), false);
+    }
+
+    @Benchmark
+    public ExtractedPage streamingExtract() throws IOException {
+        return StreamingHtmlExtractor.extract(new StringReader(html), BASE_URI, Long.MAX_VALUE);
+    }
+
+    /**
+     * Boilerplate removal alone, on the DOM built in setup
+     */
+    @Benchmark
+    public String mainContent() {
+        return MainContentExtractor.of(document);
+    }
+
+    @Benchmark
+    public ExtractedPage jsoupExtractMainContent() {
+        return Crawler.extract(Jsoup.parse(html, BASE_URI), true);
+    }
+
+    @Benchmark
+    public ExtractedPage streamingExtractMainContent() throws IOException {
+        return StreamingHtmlExtractor.extract(new StringReader(html), BASE_URI, Long.MAX_VALUE, true);
+    }
+}
@@ -0,0 +1,121 @@
+package org.embeding;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.elbadry.SiteData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.outils.ObjectToMapConverter;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The boxed List&lt;Double&gt; representation against {@link Embedding} on the
+ * crawl path (building and serializing a document) and the query path
+ * (scoring stored documents against a query). Add -prof gc for the bytes
+ * allocated per operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EmbeddingAllocationBenchmark {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final int DOCS = 1000;
+
+    @Param({"768"})
+    int dims;
+
+    private String text;
+    private List<Double> response; // what the Ollama client hands back for one text
+    private List<List<Double>> boxedDocs;
+    private List<Embedding> floatDocs;
+    private List<Double> boxedQuery;
+    private Embedding floatQuery;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        text = "Geeksblabla is a Moroccan tech community hosting a weekly podcast. ".repeat(40);
+        response = randomList(random, dims);
+        boxedDocs = new ArrayList<>(DOCS);
+        floatDocs = new ArrayList<>(DOCS);
+        for (int i = 0; i < DOCS; i++) {
+            List<Double> doc = randomList(random, dims);
+            boxedDocs.add(doc);
+            floatDocs.add(Embedding.of(doc));
+        }
+        boxedQuery = randomList(random, dims);
+        floatQuery = Embedding.of(boxedQuery);
+    }
+
+    @Benchmark
+    public byte[] crawlBoxed() throws Exception {
+        Map<String, Object> doc = new LinkedHashMap<>();
+        doc.put("url", "https://geeksblabla.community/");
+        doc.put("title", "Geeksblabla");
+        doc.put("scrapedData", text);
+        doc.put("embedding", new ArrayList<>(response));
+        return MAPPER.writeValueAsBytes(ObjectToMapConverter.convertToMap(doc));
+    }
+
+    @Benchmark
+    public byte[] crawlEmbedding() throws Exception {
+        return MAPPER.writeValueAsBytes(new SiteData("https://geeksblabla.community/", "Geeksblabla", text,
+                Embedding.of(response)));
+    }
+
+    @Benchmark
+    public double queryBoxed() {
+        double sum = 0;
+        for (List<Double> doc : boxedDocs) {
+            sum += boxedCosine(boxedQuery, doc);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double queryEmbedding() {
+        double sum = 0;
+        for (Embedding doc : floatDocs) {
+            sum += floatQuery.cosine(doc);
+        }
+        return sum;
+    }
+
+    /**
+     * The scoring loop SemanticSearchService used before the float[] switch
+     */
+    private static double boxedCosine(List<Double> v1, List<Double> v2) {
+        double dot = 0, normA = 0, normB = 0;
+        for (int i = 0; i < v1.size(); i++) {
+            dot += v1.get(i) * v2.get(i);
+            normA += Math.pow(v1.get(i), 2);
+            normB += Math.pow(v2.get(i), 2);
+        }
+        return dot / (Math.sqrt(normA) * Math.sqrt(normB));
+    }
+
+    private static List<Double> randomList(Random random, int dims) {
+        List<Double> list = new ArrayList<>(dims);
+        for (int i = 0; i < dims; i++) {
+            list.add(random.nextGaussian());
+        }
+        return list;
+    }
+}
@@ -0,0 +1,103 @@
+package org.embeding;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scalar against Vector API kernels at common embedding sizes.
+ * Run: java -jar target/benchmarks.jar SimilarityKernelsBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class SimilarityKernelsBenchmark {
+    @Param({"384", "768", "1024"})
+    int dims;
+
+    private final SimilarityKernels scalar = new ScalarKernels();
+    private final SimilarityKernels vector = new VectorApiKernels();
+    private float[] a;
+    private float[] b;
+    private byte[] qa;
+    private byte[] qb;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        a = new float[dims];
+        b = new float[dims];
+        qa = new byte[dims];
+        qb = new byte[dims];
+        for (int i = 0; i < dims; i++) {
+            a[i] = (float) random.nextGaussian();
+            b[i] = (float) random.nextGaussian();
+            qa[i] = (byte) (random.nextInt(256) - 128);
+            qb[i] = (byte) (random.nextInt(256) - 128);
+        }
+    }
+
+    @Benchmark
+    public float dotScalar() {
+        return scalar.dot(a, b);
+    }
+
+    @Benchmark
+    public float dotVector() {
+        return vector.dot(a, b);
+    }
+
+    @Benchmark
+    public float cosineScalar() {
+        return scalar.cosine(a, b);
+    }
+
+    @Benchmark
+    public float cosineVector() {
+        return vector.cosine(a, b);
+    }
+
+    @Benchmark
+    public float l2Scalar() {
+        return scalar.l2Squared(a, b);
+    }
+
+    @Benchmark
+    public float l2Vector() {
+        return vector.l2Squared(a, b);
+    }
+
+    @Benchmark
+    public int dotInt8Scalar() {
+        return scalar.dot(qa, qb);
+    }
+
+    @Benchmark
+    public int dotInt8Vector() {
+        return vector.dot(qa, qb);
+    }
+
+    @Benchmark
+    public float cosineInt8Scalar() {
+        return scalar.cosine(qa, qb);
+    }
+
+    @Benchmark
+    public float cosineInt8Vector() {
+        return vector.cosine(qa, qb);
+    }
+}
@@ -0,0 +1,81 @@
+package org.outils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.elbadry.Passage;
+import org.elbadry.SiteData;
+import org.embeding.Embedding;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turning a crawled {@link SiteData} into request bytes: through
+ * {@link ObjectToMapConverter#convertToMap} as the single-document path does,
+ * and serialized directly as the bulk indexer does.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final int DIMS = 768;
+
+    // 0 indexes one page vector, more adds that many passage vectors
+    @Param({"0", "8"})
+    int passages;
+
+    private SiteData siteData;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        String text = "Geeksblabla is a Moroccan tech community hosting a weekly podcast, "
+                + "the annual BlablaConf conference and the State Of Dev survey. ";
+        List<Passage> chunks = new ArrayList<>();
+        for (int i = 0; i < passages; i++) {
+            chunks.add(new Passage(text.repeat(8), randomEmbedding(random)));
+        }
+        siteData = new SiteData("https://geeksblabla.community/blog/how-we-run-blablaconf", "How we run BlablaConf",
+                text.repeat(60), randomEmbedding(random), chunks);
+    }
+
+    @Benchmark
+    public Map<String, Object> convertToMap() throws Exception {
+        return ObjectToMapConverter.convertToMap(siteData);
+    }
+
+    @Benchmark
+    public byte[] convertToMapAndWrite() throws Exception {
+        return MAPPER.writeValueAsBytes(ObjectToMapConverter.convertToMap(siteData));
+    }
+
+    @Benchmark
+    public byte[] writeDirect() throws Exception {
+        return MAPPER.writeValueAsBytes(siteData);
+    }
+
+    private static Embedding randomEmbedding(Random random) {
+        float[] values = new float[DIMS];
+        for (int i = 0; i < DIMS; i++) {
+            values[i] = (float) random.nextGaussian();
+        }
+        return Embedding.of(values);
+    }
+}
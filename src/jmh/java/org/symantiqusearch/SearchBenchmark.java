@@ -0,0 +1,127 @@
+package org.symantiqusearch;
+
+import org.db.HnswIndex;
+import org.embeding.Embedding;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link SemanticSearchService} end to end on local stand-ins instead of
+ * Ollama and Elasticsearch: queries are pre-embedded and documents are served
+ * by the in-process HNSW index or by an exact scan over every vector, the
+ * stand-in for script_score. Also times a single cosine similarity.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class SearchBenchmark {
+    private static final int DIMS = 768;
+    private static final int DOCS = 5000;
+    private static final int TOPICS = 50;
+    private static final int QUERIES = 64;
+
+    @Param({"hnsw", "exact"})
+    String backend;
+
+    private SemanticSearchService searchService;
+    private List<Embedding> queries;
+    private Embedding first;
+    private Embedding second;
+    private int next;
+
+    /**
+     * Top k by scanning every vector
+     */
+    private record ExactScanBackend(List<String> ids, List<Embedding> vectors) implements VectorSearchBackend {
+        @Override
+        public Map<String, Double> search(Embedding qEmbed, int k) {
+            PriorityQueue<Map.Entry<String, Double>> top = new PriorityQueue<>(Map.Entry.comparingByValue());
+            for (int i = 0; i < vectors.size(); i++) {
+                top.add(Map.entry(ids.get(i), qEmbed.cosine(vectors.get(i))));
+                if (top.size() > k) {
+                    top.poll();
+                }
+            }
+            List<Map.Entry<String, Double>> sorted = new ArrayList<>(top);
+            sorted.sort(Map.Entry.<String, Double>comparingByValue(Comparator.reverseOrder()));
+            Map<String, Double> results = new LinkedHashMap<>();
+            sorted.forEach(entry -> results.put(entry.getKey(), entry.getValue()));
+            return results;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        // Documents cluster around topics, so queries near a topic have hits above the threshold
+        Random random = new Random(42);
+        float[][] centers = new float[TOPICS][];
+        for (int t = 0; t < TOPICS; t++) {
+            centers[t] = gaussian(random, 1.0f, null);
+        }
+        List<String> ids = new ArrayList<>(DOCS);
+        List<Embedding> vectors = new ArrayList<>(DOCS);
+        for (int i = 0; i < DOCS; i++) {
+            ids.add("https://geeksblabla.community/page-" + i);
+            vectors.add(Embedding.of(gaussian(random, 0.6f, centers[i % TOPICS])));
+        }
+        queries = new ArrayList<>(QUERIES);
+        for (int i = 0; i < QUERIES; i++) {
+            queries.add(Embedding.of(gaussian(random, 0.6f, centers[random.nextInt(TOPICS)])));
+        }
+        first = vectors.get(0);
+        second = vectors.get(1);
+
+        VectorSearchBackend searchBackend;
+        if ("hnsw".equals(backend)) {
+            HnswIndex index = new HnswIndex(DIMS, 16, 100);
+            for (int i = 0; i < DOCS; i++) {
+                index.add(ids.get(i), vectors.get(i));
+            }
+            searchBackend = new LocalVectorSearchBackend(index, 100);
+        } else {
+            searchBackend = new ExactScanBackend(ids, vectors);
+        }
+        searchService = new SemanticSearchService(searchBackend);
+    }
+
+    @Benchmark
+    public Map<String, Double> search() throws IOException {
+        Embedding query = queries.get(next++ % QUERIES);
+        return searchService.semanticSearch(query, "benchmark");
+    }
+
+    @Benchmark
+    public double cosine() {
+        return first.cosine(second);
+    }
+
+    private static float[] gaussian(Random random, float scale, float[] center) {
+        float[] values = new float[DIMS];
+        for (int i = 0; i < DIMS; i++) {
+            values[i] = (center != null ? center[i] : 0) + scale * (float) random.nextGaussian();
+        }
+        return values;
+    }
+}
@@ -4,6 +4,7 @@ import org.db.ElasticsearchConnection;
 import org.db.ElasticsearchService;
 import org.db.IndexManager;
 import org.elbadry.Crawler;
+import org.symantiqusearch.SearchResult;
 import org.symantiqusearch.SemanticSearchService;
 
 import java.io.IOException;
@@ -198,7 +199,9 @@ public class Main {
         }
 
         System.out.println(ANSI_GREEN + "🔍 Searching for: \"" + query + "\"..." + ANSI_RESET);
-        Map<String, Double> results = searchService.semanticSearch(query, indexName);
+        SearchResult searchResult = searchService.search(query, indexName);
+        Map<String, Double> results = searchResult.results();
+        System.out.println(ANSI_BLUE + "⏱️  " + searchResult.timings() + ANSI_RESET);
 
         if (results.isEmpty()) {
             System.out.println(ANSI_YELLOW + "⚠️  No results found for your query." + ANSI_RESET);
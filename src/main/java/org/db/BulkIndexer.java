@@ -0,0 +1,272 @@
+package org.db;
+
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Buffers documents and writes them with {@link ElasticsearchService#storeBulkData}.
+ * A batch is flushed when it reaches a document count, an estimated byte size
+ * or when the flush interval has elapsed. Items rejected by Elasticsearch with a
+ * retryable status (429 / 5xx) go to a retry queue and are sent again with the
+ * next batch, up to MAX_ITEM_ATTEMPTS times.
+ */
+public class BulkIndexer implements AutoCloseable {
+    private static final int MAX_ITEM_ATTEMPTS = 3;
+
+    private final ElasticsearchService service;
+    private final String index;
+    private final int maxDocs;
+    private final long maxBytes;
+    private final long flushIntervalMs;
+
+    private final Object lock = new Object();
+    private List<PendingDoc> buffer = new ArrayList<>();
+    private long bufferBytes;
+    private long lastFlush = System.currentTimeMillis();
+    private int sending; // batches taken from the buffer whose request has not returned yet
+    private final ConcurrentLinkedQueue<PendingDoc> retryQueue = new ConcurrentLinkedQueue<>();
+    private final ScheduledExecutorService timer;
+
+    private final AtomicLong indexed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+
+    private record PendingDoc(String id, Object data, long bytes, int attempts, boolean partial) {
+    }
+
+    public BulkIndexer(ElasticsearchService service, String index, int maxDocs, long maxBytes, long flushIntervalMs) {
+        this.service = service;
+        this.index = index;
+        this.maxDocs = Math.max(1, maxDocs);
+        this.maxBytes = Math.max(1, maxBytes);
+        this.flushIntervalMs = Math.max(1, flushIntervalMs);
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "bulk-flush");
+            t.setDaemon(true);
+            return t;
+        });
+        timer.scheduleWithFixedDelay(this::flushIfDue, this.flushIntervalMs, this.flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Add a document to the current batch, flushing it if a size limit is reached
+     */
+    public void add(String id, Map<String, Object> data) {
+        add(id, data, estimateSize(data));
+    }
+
+    /**
+     * Add any document Jackson can serialize, with its estimated JSON size
+     */
+    public void add(String id, Object document, long estimatedBytes) {
+        add(new PendingDoc(id, document, estimatedBytes, 0, false));
+    }
+
+    /**
+     * Merge some fields into a stored document, batched with the other documents
+     */
+    public void update(String id, Object partialDocument, long estimatedBytes) {
+        add(new PendingDoc(id, partialDocument, estimatedBytes, 0, true));
+    }
+
+    private void add(PendingDoc doc) {
+        List<PendingDoc> full = null;
+        synchronized (lock) {
+            buffer.add(doc);
+            bufferBytes += doc.bytes();
+            if (buffer.size() >= maxDocs || bufferBytes >= maxBytes) {
+                full = takeBuffer();
+            }
+        }
+        if (full != null) {
+            send(full);
+        }
+    }
+
+    /**
+     * Send everything buffered, including documents waiting for a retry, and
+     * wait for the batches other threads are sending, so every document added
+     * before this call has had its request answered
+     */
+    public void flush() {
+        PendingDoc retry;
+        while ((retry = retryQueue.poll()) != null) {
+            synchronized (lock) {
+                buffer.add(retry);
+                bufferBytes += retry.bytes();
+            }
+        }
+        List<PendingDoc> batch;
+        synchronized (lock) {
+            batch = takeBuffer();
+        }
+        if (!batch.isEmpty()) {
+            send(batch);
+        }
+        synchronized (lock) {
+            try {
+                while (sending > 0) {
+                    lock.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void flushIfDue() {
+        boolean due;
+        synchronized (lock) {
+            due = System.currentTimeMillis() - lastFlush >= flushIntervalMs;
+        }
+        if (due || !retryQueue.isEmpty()) {
+            flush();
+        }
+    }
+
+    /**
+     * The caller holds the lock and must send the batch when it is not empty
+     */
+    private List<PendingDoc> takeBuffer() {
+        List<PendingDoc> batch = buffer;
+        if (!batch.isEmpty()) {
+            sending++;
+        }
+        buffer = new ArrayList<>();
+        bufferBytes = 0;
+        lastFlush = System.currentTimeMillis();
+        return batch;
+    }
+
+    private void send(List<PendingDoc> batch) {
+        try {
+            sendBatch(batch);
+        } finally {
+            synchronized (lock) {
+                sending--;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    private void sendBatch(List<PendingDoc> batch) {
+        List<String> ids = new ArrayList<>(batch.size());
+        List<Object> docs = new ArrayList<>(batch.size());
+        BitSet partial = new BitSet(batch.size());
+        for (PendingDoc doc : batch) {
+            partial.set(ids.size(), doc.partial());
+            ids.add(doc.id());
+            docs.add(doc.data());
+        }
+
+        requests.incrementAndGet();
+        try {
+            List<BulkResponseItem> items = service.storeBulkData(ids, index, docs, partial);
+            // Items come back in request order; a batch may hold an index and an update of one ID
+            int rejected = 0;
+            for (int position = 0; position < batch.size(); position++) {
+                BulkResponseItem item = position < items.size() ? items.get(position) : null;
+                if (item != null && item.error() == null) {
+                    continue;
+                }
+                rejected++;
+                PendingDoc doc = batch.get(position);
+                if (item == null) {
+                    failed.incrementAndGet();
+                    System.err.println("No bulk response item for ID " + doc.id());
+                } else if (item.status() == 429 || item.status() >= 500) {
+                    scheduleRetry(doc, item.error().reason());
+                } else {
+                    failed.incrementAndGet();
+                    System.err.println("Error for ID " + item.id() + ": " + item.error().reason());
+                }
+            }
+            indexed.addAndGet(batch.size() - rejected);
+            System.out.println("Bulk indexed " + (batch.size() - rejected) + "/" + batch.size() + " documents");
+        } catch (IOException e) {
+            System.err.println("Bulk request failed: " + e.getMessage());
+            batch.forEach(doc -> scheduleRetry(doc, e.getMessage()));
+        }
+    }
+
+    private void scheduleRetry(PendingDoc doc, String reason) {
+        if (doc.attempts() + 1 >= MAX_ITEM_ATTEMPTS) {
+            failed.incrementAndGet();
+            System.err.println("Giving up on ID " + doc.id() + " after " + MAX_ITEM_ATTEMPTS + " attempts: " + reason);
+            return;
+        }
+        retried.incrementAndGet();
+        retryQueue.add(new PendingDoc(doc.id(), doc.data(), doc.bytes(), doc.attempts() + 1, doc.partial()));
+    }
+
+    /**
+     * Final flush: stop the timer and send the remaining batch and retries
+     */
+    @Override
+    public void close() {
+        timer.shutdown();
+        try {
+            timer.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        // Each pass either succeeds or uses up an attempt, so this terminates
+        while (!retryQueue.isEmpty()) {
+            try {
+                Thread.sleep(500);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            flush();
+        }
+    }
+
+    public String report() {
+        return String.format("bulk: %d indexed, %d failed, %d retried in %d request(s)",
+                indexed.get(), failed.get(), retried.get(), requests.get());
+    }
+
+    /**
+     * Rough size of a document once serialized to JSON, without serializing it
+     */
+    static long estimateSize(Object value) {
+        if (value == null) {
+            return 4;
+        }
+        if (value instanceof CharSequence text) {
+            return text.length() + 2L;
+        }
+        if (value instanceof Number || value instanceof Boolean) {
+            return 20;
+        }
+        if (value instanceof Map<?, ?> map) {
+            long size = 2;
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                size += String.valueOf(entry.getKey()).length() + 4 + estimateSize(entry.getValue());
+            }
+            return size;
+        }
+        if (value instanceof Collection<?> collection) {
+            long size = 2;
+            for (Object element : collection) {
+                size += 1 + estimateSize(element);
+            }
+            return size;
+        }
+        return String.valueOf(value).length() + 2L;
+    }
+}
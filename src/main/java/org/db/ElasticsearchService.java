@@ -1,15 +1,20 @@
 package org.db;
 
 import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import co.elastic.clients.elasticsearch.core.BulkRequest;
 import co.elastic.clients.elasticsearch.core.BulkResponse;
 import co.elastic.clients.elasticsearch.core.DeleteResponse;
+import co.elastic.clients.elasticsearch.core.GetResponse;
 import co.elastic.clients.elasticsearch.core.IndexResponse;
 import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
 import co.elastic.clients.elasticsearch.core.search.Hit;
 import co.elastic.clients.elasticsearch.core.ScrollResponse;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -35,20 +40,43 @@ public class ElasticsearchService {
         }
     }
 
-    public void storeBulkData(List<String> urls, String index, List<Map<String, Object>> dataList) throws IOException {
+    /**
+     * Index several documents in one bulk request, retrying the whole request with backoff
+     *
+     * @return one item per document, in request order; items with an error were rejected
+     */
+    public List<BulkResponseItem> storeBulkData(List<String> urls, String index, List<?> dataList) throws IOException {
+        return storeBulkData(urls, index, dataList, new BitSet());
+    }
+
+    /**
+     * Same as {@link #storeBulkData(List, String, List)}, except that the documents at
+     * the positions set in partialUpdates are merged into the stored documents
+     */
+    public List<BulkResponseItem> storeBulkData(List<String> urls, String index, List<?> dataList,
+                                                BitSet partialUpdates) throws IOException {
         if (urls.size() != dataList.size()) {
             throw new IllegalArgumentException("URLs and dataList must be the same size");
         }
 
-        var bulkRequest = new co.elastic.clients.elasticsearch.core.BulkRequest.Builder();
+        var bulkRequest = new BulkRequest.Builder();
 
         for (int i = 0; i < urls.size(); i++) {
             int finalI = i;
-            bulkRequest.operations(op -> op.index(idx -> idx
-                    .id(urls.get(finalI))
-                    .index(index)
-                    .document(dataList.get(finalI))));
+            if (partialUpdates.get(i)) {
+                bulkRequest.operations(op -> op.update(upd -> upd
+                        .id(urls.get(finalI))
+                        .index(index)
+                        .action(a -> a.doc(dataList.get(finalI)))));
+            } else {
+                bulkRequest.operations(op -> op.index(idx -> idx
+                        .id(urls.get(finalI))
+                        .index(index)
+                        .document(dataList.get(finalI))));
+            }
         }
+        // Builders can only be built once; the same request is sent again on a retry
+        BulkRequest request = bulkRequest.build();
 
         int retries = 0;
         final int MAX_RETRIES = 3;
@@ -56,13 +84,8 @@ public class ElasticsearchService {
 
         while (retries < MAX_RETRIES) {
             try {
-                BulkResponse response = client.bulk(bulkRequest.build());
-                if (response.errors()) {
-                    response.items().stream()
-                            .filter(item -> item.error() != null)
-                            .forEach(item -> System.err.println("Error for ID " + item.id() + ": " + item.error().reason()));
-                }
-                return;
+                BulkResponse response = client.bulk(request);
+                return response.items();
             } catch (Exception e) {
                 System.err.println("Elasticsearch bulk request failed (attempt " + (retries + 1) + "): " + e.getMessage());
                 if (++retries == MAX_RETRIES) {
@@ -76,17 +99,26 @@ public class ElasticsearchService {
                 }
             }
         }
+        return List.of();
     }
 
     public List<String> getIDsScroll(String index) throws IOException {
+        return getIDsScroll(index, Query.of(q -> q.matchAll(m -> m)));
+    }
+
+    /**
+     * IDs of every document matching the query, fetched without their source
+     */
+    public List<String> getIDsScroll(String index, Query query) throws IOException {
         List<String> ids = new ArrayList<>();
 
         // Initial search with scroll parameter
         SearchResponse<Map> searchResponse = client.search(s -> s
                         .index(index)
                         .size(1000)
+                        .source(src -> src.fetch(false))
                         .scroll(sc -> sc.time("1m"))
-                        .query(q -> q.matchAll(m -> m)),
+                        .query(query),
                 Map.class);
 
         // Add initial batch of hits
@@ -129,6 +161,15 @@ public class ElasticsearchService {
         return ids;
     }
 
+    /**
+     * IDs of the documents whose timeField is at most now, or that have no timeField
+     */
+    public List<String> getDueIDs(String index, String timeField, long now) throws IOException {
+        return getIDsScroll(index, Query.of(q -> q.bool(b -> b
+                .should(s -> s.range(r -> r.number(n -> n.field(timeField).lte((double) now))))
+                .should(s -> s.bool(missing -> missing.mustNot(m -> m.exists(e -> e.field(timeField))))))));
+    }
+
     public List<String> getIDs(String index) throws IOException {
         // Ideally use pagination or scroll API. For smaller datasets, size(10000) may suffice.
         SearchResponse<Map> response = client.search(s -> s
@@ -163,6 +204,18 @@ public class ElasticsearchService {
         }
     }
 
+    /**
+     * The listed fields of a stored document, or null when there is no such document
+     */
+    public Map<?, ?> getFields(String index, String id, List<String> fields) throws IOException {
+        GetResponse<Map> response = client.get(g -> g
+                        .index(index)
+                        .id(id)
+                        .sourceIncludes(fields),
+                Map.class);
+        return response.found() ? response.source() : null;
+    }
+
     public boolean documentExists(String index, String id) throws IOException {
         return client.exists(e -> e
                 .index(index)
@@ -0,0 +1,516 @@
+package org.db;
+
+import org.embeding.Embedding;
+import org.embeding.SimilarityKernels;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-process approximate nearest neighbour index (HNSW graph).
+ * Vectors are normalized on insert so the dot product is the cosine similarity,
+ * and are kept in one contiguous float[] while the index is built. A saved index
+ * can be memory-mapped back: the vectors are then read straight from the mapped
+ * file (off-heap) and only the ids and graph links live on the heap.
+ * Several vectors may share an id (e.g. the passages of one page); searches
+ * return each id once with its best score. Replacing an id tombstones its old
+ * vectors: they stay in the graph as waypoints but are never returned.
+ */
+public class HnswIndex {
+    private static final int MAGIC = 0x57534E48; // "HNSW"
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 64;
+    private static final ThreadLocal<float[]> SCRATCH = ThreadLocal.withInitial(() -> new float[0]);
+
+    private final int dims;
+    private final int m;
+    private final int efConstruction;
+    private final double levelMultiplier;
+    private final Random random = new Random(42);
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private float[] heapVectors; // contiguous storage while building, null when mapped
+    private FloatBuffer mappedVectors; // off-heap storage of a mapped index
+    private final List<String> ids = new ArrayList<>();
+    private final Map<String, List<Integer>> nodesById = new HashMap<>();
+    private final BitSet deleted = new BitSet();
+    private int[] nodeLevels = new int[16];
+    private int[][][] links = new int[16][][]; // links[node][level] = {count, neighbour...}
+    private int size;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+    private long modifications;
+
+    public record Result(String id, double score) {
+    }
+
+    private record Candidate(int node, float similarity) {
+    }
+
+    public HnswIndex(int dims, int m, int efConstruction) {
+        this.dims = dims;
+        this.m = Math.max(2, m);
+        this.efConstruction = Math.max(this.m, efConstruction);
+        this.levelMultiplier = 1 / Math.log(this.m);
+        this.heapVectors = new float[16 * dims];
+    }
+
+    /**
+     * @return the number of live (not replaced) vectors
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size - deleted.cardinality();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return a counter bumped by every add or replace, to tell whether the index changed since a save
+     */
+    public long modifications() {
+        lock.readLock().lock();
+        try {
+            return modifications;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getDims() {
+        return dims;
+    }
+
+    public void add(String id, Embedding embedding) {
+        add(id, embedding.values());
+    }
+
+    public void add(String id, float[] vector) {
+        if (vector.length != dims) {
+            throw new IllegalArgumentException("Expected " + dims + " dimensions but got " + vector.length);
+        }
+        float[] normalized = normalize(vector);
+        lock.writeLock().lock();
+        try {
+            checkWritable();
+            insert(id, normalized);
+            modifications++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Swap all vectors stored under an id for new ones (none to just remove it)
+     */
+    public void replace(String id, List<float[]> vectors) {
+        List<float[]> normalized = new ArrayList<>(vectors.size());
+        for (float[] vector : vectors) {
+            if (vector.length != dims) {
+                throw new IllegalArgumentException("Expected " + dims + " dimensions but got " + vector.length);
+            }
+            normalized.add(normalize(vector));
+        }
+        lock.writeLock().lock();
+        try {
+            checkWritable();
+            List<Integer> old = nodesById.remove(id);
+            if (old != null) {
+                old.forEach(deleted::set);
+            }
+            for (float[] vector : normalized) {
+                insert(id, vector);
+            }
+            modifications++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void checkWritable() {
+        if (heapVectors == null) {
+            throw new UnsupportedOperationException("A memory-mapped index is read-only, load it with mmap=false");
+        }
+    }
+
+    /**
+     * Link a normalized vector into the graph; the caller holds the write lock
+     */
+    private void insert(String id, float[] normalized) {
+        int node = size;
+        ensureCapacity(node + 1);
+        System.arraycopy(normalized, 0, heapVectors, node * dims, dims);
+        ids.add(id);
+        nodesById.computeIfAbsent(id, key -> new ArrayList<>(1)).add(node);
+        size++;
+
+        int level = (int) (-Math.log(1 - random.nextDouble()) * levelMultiplier);
+        nodeLevels[node] = level;
+        links[node] = new int[level + 1][];
+        for (int l = 0; l <= level; l++) {
+            links[node][l] = new int[maxConnections(l) + 1];
+        }
+
+        if (entryPoint < 0) {
+            entryPoint = node;
+            maxLevel = level;
+            return;
+        }
+
+        int current = entryPoint;
+        for (int l = maxLevel; l > level; l--) {
+            current = greedyClosest(normalized, current, l);
+        }
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            List<Candidate> candidates = searchLayer(normalized, current, efConstruction, l);
+            for (int i = 0; i < Math.min(m, candidates.size()); i++) {
+                int neighbour = candidates.get(i).node();
+                connect(node, neighbour, l);
+                connect(neighbour, node, l);
+            }
+            current = candidates.get(0).node();
+        }
+        if (level > maxLevel) {
+            maxLevel = level;
+            entryPoint = node;
+        }
+    }
+
+    /**
+     * @return up to k ids ordered by cosine similarity, best first
+     */
+    public List<Result> search(float[] query, int k, int ef) {
+        float[] normalized = normalize(query);
+        lock.readLock().lock();
+        try {
+            if (entryPoint < 0) {
+                return List.of();
+            }
+            int current = entryPoint;
+            for (int l = maxLevel; l > 0; l--) {
+                current = greedyClosest(normalized, current, l);
+            }
+            // Vectors sharing an id collapse into one result, so look a bit further
+            List<Candidate> candidates = searchLayer(normalized, current, Math.max(ef, k * 2), 0);
+
+            List<Result> results = new ArrayList<>(k);
+            Set<String> seen = new HashSet<>();
+            for (Candidate candidate : candidates) {
+                if (deleted.get(candidate.node())) {
+                    continue;
+                }
+                String id = ids.get(candidate.node());
+                if (seen.add(id)) {
+                    results.add(new Result(id, candidate.similarity()));
+                    if (results.size() == k) {
+                        break;
+                    }
+                }
+            }
+            return results;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int maxConnections(int level) {
+        return level == 0 ? 2 * m : m;
+    }
+
+    private int greedyClosest(float[] query, int start, int level) {
+        int current = start;
+        float best = similarity(query, current);
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            int[] neighbours = links[current][level];
+            for (int i = 1; i <= neighbours[0]; i++) {
+                float sim = similarity(query, neighbours[i]);
+                if (sim > best) {
+                    best = sim;
+                    current = neighbours[i];
+                    improved = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Best-first search of one layer
+     *
+     * @return the ef closest nodes found, best first
+     */
+    private List<Candidate> searchLayer(float[] query, int entry, int ef, int level) {
+        BitSet visited = new BitSet(size);
+        PriorityQueue<Candidate> toVisit = new PriorityQueue<>(Comparator.comparingDouble(c -> -c.similarity()));
+        PriorityQueue<Candidate> found = new PriorityQueue<>(Comparator.comparingDouble(Candidate::similarity));
+
+        Candidate start = new Candidate(entry, similarity(query, entry));
+        visited.set(entry);
+        toVisit.add(start);
+        found.add(start);
+
+        while (!toVisit.isEmpty()) {
+            Candidate current = toVisit.poll();
+            if (found.size() >= ef && current.similarity() < found.peek().similarity()) {
+                break;
+            }
+            int[] neighbours = links[current.node()][level];
+            for (int i = 1; i <= neighbours[0]; i++) {
+                int neighbour = neighbours[i];
+                if (visited.get(neighbour)) {
+                    continue;
+                }
+                visited.set(neighbour);
+                float sim = similarity(query, neighbour);
+                if (found.size() < ef || sim > found.peek().similarity()) {
+                    Candidate candidate = new Candidate(neighbour, sim);
+                    toVisit.add(candidate);
+                    found.add(candidate);
+                    if (found.size() > ef) {
+                        found.poll();
+                    }
+                }
+            }
+        }
+
+        List<Candidate> result = new ArrayList<>(found);
+        result.sort(Comparator.comparingDouble(c -> -c.similarity()));
+        return result;
+    }
+
+    /**
+     * Add a link from node to neighbour, dropping the farthest link when the list is full
+     */
+    private void connect(int node, int neighbour, int level) {
+        int[] list = links[node][level];
+        int max = list.length - 1;
+        if (list[0] < max) {
+            list[++list[0]] = neighbour;
+            return;
+        }
+
+        float[] base = vector(node);
+        int worst = -1;
+        float worstSim = similarity(base, neighbour);
+        for (int i = 1; i <= max; i++) {
+            float sim = similarity(base, list[i]);
+            if (sim < worstSim) {
+                worstSim = sim;
+                worst = i;
+            }
+        }
+        if (worst > 0) {
+            list[worst] = neighbour;
+        }
+    }
+
+    private float similarity(float[] query, int node) {
+        if (heapVectors != null) {
+            return dot(query, heapVectors, node * dims);
+        }
+        // Bulk-copy the mapped vector once instead of a bounds-checked get per element
+        float[] scratch = SCRATCH.get();
+        if (scratch.length < dims) {
+            scratch = new float[dims];
+            SCRATCH.set(scratch);
+        }
+        mappedVectors.get(node * dims, scratch, 0, dims);
+        return dot(query, scratch, 0);
+    }
+
+    private float dot(float[] query, float[] data, int offset) {
+        return SimilarityKernels.INSTANCE.dot(query, 0, data, offset, dims);
+    }
+
+    private float[] vector(int node) {
+        float[] vector = new float[dims];
+        if (heapVectors != null) {
+            System.arraycopy(heapVectors, node * dims, vector, 0, dims);
+        } else {
+            mappedVectors.get(node * dims, vector);
+        }
+        return vector;
+    }
+
+    private void ensureCapacity(int nodes) {
+        if (nodes * dims > heapVectors.length) {
+            heapVectors = Arrays.copyOf(heapVectors, Math.max(nodes, size * 2) * dims);
+        }
+        if (nodes > nodeLevels.length) {
+            int capacity = Math.max(nodes, nodeLevels.length * 2);
+            nodeLevels = Arrays.copyOf(nodeLevels, capacity);
+            links = Arrays.copyOf(links, capacity);
+        }
+    }
+
+    private static float[] normalize(float[] vector) {
+        double norm = 0;
+        for (float value : vector) {
+            norm += value * value;
+        }
+        float[] normalized = vector.clone();
+        if (norm > 0) {
+            float scale = (float) (1 / Math.sqrt(norm));
+            for (int i = 0; i < normalized.length; i++) {
+                normalized[i] *= scale;
+            }
+        }
+        return normalized;
+    }
+
+    /**
+     * Write the index to disk: a fixed header, the vectors as one little-endian
+     * float block (so they can be mapped back), then ids, tombstones and graph links
+     */
+    public void save(Path path) throws IOException {
+        lock.readLock().lock();
+        try {
+            Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(MAGIC).putInt(VERSION).putInt(dims).putInt(size)
+                        .putInt(m).putInt(efConstruction).putInt(entryPoint).putInt(maxLevel);
+                header.clear();
+                writeFully(channel, header);
+
+                ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+                // Vectors go out a buffer-full at a time through a float view, not one putFloat each
+                int total = size * dims;
+                for (int i = 0; i < total; ) {
+                    buffer = ensureRoom(channel, buffer, 4);
+                    int count = Math.min(total - i, buffer.remaining() / 4);
+                    FloatBuffer floats = buffer.asFloatBuffer();
+                    if (heapVectors != null) {
+                        floats.put(heapVectors, i, count);
+                    } else {
+                        floats.put(0, mappedVectors, i, count);
+                    }
+                    buffer.position(buffer.position() + count * 4);
+                    i += count;
+                }
+                for (int node = 0; node < size; node++) {
+                    byte[] id = ids.get(node).getBytes(StandardCharsets.UTF_8);
+                    buffer = ensureRoom(channel, buffer, 9 + id.length);
+                    buffer.putInt(id.length).put(id).put((byte) (deleted.get(node) ? 1 : 0)).putInt(nodeLevels[node]);
+                    for (int[] level : links[node]) {
+                        buffer = ensureRoom(channel, buffer, 4 * (level[0] + 1));
+                        for (int i = 0; i <= level[0]; i++) {
+                            buffer.putInt(level[i]);
+                        }
+                    }
+                }
+                buffer.flip();
+                writeFully(channel, buffer);
+            }
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Load a saved index.
+     *
+     * @param mmap true to keep the vectors in the mapped file (read-only, off-heap),
+     *             false to copy them to the heap so more vectors can be added
+     */
+    public static HnswIndex load(Path path, boolean mmap) throws IOException {
+        MappedByteBuffer file;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // A single mapping covers files up to 2 GB
+            file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        ByteBuffer buffer = file.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            throw new IOException("Not an HNSW index file: " + path);
+        }
+        int dims = buffer.getInt();
+        int size = buffer.getInt();
+        HnswIndex index = new HnswIndex(dims, buffer.getInt(), buffer.getInt());
+        index.entryPoint = buffer.getInt();
+        index.maxLevel = buffer.getInt();
+        index.size = size;
+
+        long vectorBytes = (long) size * dims * 4;
+        FloatBuffer vectors = buffer.slice(HEADER_BYTES, (int) vectorBytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+        if (mmap) {
+            index.heapVectors = null;
+            index.mappedVectors = vectors;
+        } else {
+            index.heapVectors = new float[Math.max(16, size) * dims];
+            vectors.get(0, index.heapVectors, 0, size * dims);
+        }
+
+        buffer.position(HEADER_BYTES + (int) vectorBytes);
+        index.nodeLevels = new int[Math.max(16, size)];
+        index.links = new int[Math.max(16, size)][][];
+        for (int node = 0; node < size; node++) {
+            byte[] id = new byte[buffer.getInt()];
+            buffer.get(id);
+            String nodeId = new String(id, StandardCharsets.UTF_8);
+            index.ids.add(nodeId);
+            if (buffer.get() != 0) {
+                index.deleted.set(node);
+            } else {
+                index.nodesById.computeIfAbsent(nodeId, key -> new ArrayList<>(1)).add(node);
+            }
+            int level = buffer.getInt();
+            index.nodeLevels[node] = level;
+            index.links[node] = new int[level + 1][];
+            for (int l = 0; l <= level; l++) {
+                int[] list = new int[index.maxConnections(l) + 1];
+                list[0] = buffer.getInt();
+                for (int i = 1; i <= list[0]; i++) {
+                    list[i] = buffer.getInt();
+                }
+                index.links[node][l] = list;
+            }
+        }
+        return index;
+    }
+
+    private static ByteBuffer ensureRoom(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+        if (buffer.remaining() >= bytes) {
+            return buffer;
+        }
+        buffer.flip();
+        writeFully(channel, buffer);
+        buffer.clear();
+        if (buffer.capacity() < bytes) {
+            return ByteBuffer.allocate(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return buffer;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -3,6 +3,7 @@ package org.db;
 import co.elastic.clients.elasticsearch.ElasticsearchClient;
 import co.elastic.clients.elasticsearch.indices.CreateIndexResponse;
 import co.elastic.clients.elasticsearch.indices.DeleteIndexResponse;
+import co.elastic.clients.elasticsearch.indices.IndicesStatsResponse;
 import co.elastic.clients.elasticsearch._types.mapping.Property;
 import co.elastic.clients.transport.endpoints.BooleanResponse;
 
@@ -40,14 +41,28 @@ public class IndexManager {
     }
 
     public void createIndex(String index, int embeddingDim) throws IOException {
+        createIndex(index, embeddingDim, VectorIndexOptions.fromConfig());
+    }
+
+    /**
+     * Create the index with its embedding fields indexed in an HNSW graph for kNN search,
+     * stored as full-precision or quantized vectors depending on the options
+     */
+    public void createIndex(String index, int embeddingDim, VectorIndexOptions options) throws IOException {
         if (indexExists(index)) {
             System.out.println("Index " + index + " already exists.");
             return;
         }
 
         Map<String, Property> properties = new HashMap<>();
-        properties.put("embedding", Property.of(p -> p.denseVector(dv -> dv.dims(embeddingDim))));
+        properties.put("embedding", denseVector(embeddingDim, options));
         properties.put("url", Property.of(p -> p.keyword(k -> k)));
+        // URLs of near-duplicate pages that were not indexed separately
+        properties.put("duplicates", Property.of(p -> p.keyword(k -> k)));
+        // Chunked mode stores one vector per passage; a page scores as its best passage
+        properties.put("passages", Property.of(p -> p.nested(n -> n
+                .properties("text", Property.of(t -> t.text(tx -> tx.index(false))))
+                .properties("embedding", denseVector(embeddingDim, options)))));
 
         CreateIndexResponse response = client.indices().create(c -> c
                 .index(index)
@@ -56,4 +71,55 @@ public class IndexManager {
 
         System.out.println("Index created: " + response.index());
     }
-}
+
+    /**
+     * Create the index of fetch histories for conditional re-crawls, one document
+     * per fetched URL; only the next visit time is queried
+     */
+    public void createFetchStateIndex(String index) throws IOException {
+        if (indexExists(index)) {
+            System.out.println("Index " + index + " already exists.");
+            return;
+        }
+        CreateIndexResponse response = client.indices().create(c -> c
+                .index(index)
+                .mappings(m -> m.properties("fetch", Property.of(p -> p.object(o -> o
+                        .properties("etag", Property.of(k -> k.keyword(kw -> kw.index(false))))
+                        .properties("lastModified", Property.of(k -> k.keyword(kw -> kw.index(false))))
+                        .properties("contentHash", Property.of(k -> k.keyword(kw -> kw.index(false))))
+                        .properties("nextVisitAt", Property.of(l -> l.long_(n -> n)))))))
+        );
+        System.out.println("Index created: " + response.index());
+    }
+
+    private static Property denseVector(int embeddingDim, VectorIndexOptions options) {
+        return Property.of(p -> p.denseVector(dv -> dv
+                .dims(embeddingDim)
+                .index(true)
+                .similarity(options.getSimilarity())
+                .indexOptions(io -> io
+                        .type(options.getType())
+                        .m(options.getM())
+                        .efConstruction(options.getEfConstruction()))));
+    }
+
+    /**
+     * Number of Lucene documents in the index, nested passages included, which is
+     * the number of vectors when every document carries one
+     */
+    public long vectorCount(String index) throws IOException {
+        IndicesStatsResponse stats = client.indices().stats(s -> s.index(index));
+        var docs = stats.all().primaries().docs();
+        return docs != null ? docs.count() : 0;
+    }
+
+    /**
+     * Print the estimated page-cache footprint of the index's vectors
+     */
+    public void printVectorMemory(String index, int embeddingDim, VectorIndexOptions options) throws IOException {
+        long vectors = vectorCount(index);
+        long bytes = options.estimateVectorBytes(vectors, embeddingDim);
+        System.out.println(String.format("%s (%s): %d vectors x %d dims, ~%.1f MB off-heap for kNN",
+                index, options.getType(), vectors, embeddingDim, bytes / (1024.0 * 1024.0)));
+    }
+}
\ No newline at end of file
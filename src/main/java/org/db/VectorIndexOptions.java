@@ -0,0 +1,95 @@
+package org.db;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * How the embedding fields are indexed for kNN search: the similarity
+ * function, the HNSW graph parameters and the vector storage type.
+ * Besides full-precision "hnsw", the quantized types "int8_hnsw", "int4_hnsw"
+ * and "bbq_hnsw" keep a compressed copy of each vector for the graph search,
+ * which is what has to fit in the page cache (see {@link #estimateVectorBytes}).
+ */
+public class VectorIndexOptions {
+    private final String similarity;
+    private final int m;
+    private final int efConstruction;
+    private final String type;
+
+    public VectorIndexOptions(String similarity, int m, int efConstruction) {
+        this(similarity, m, efConstruction, "hnsw");
+    }
+
+    public VectorIndexOptions(String similarity, int m, int efConstruction, String type) {
+        this.similarity = similarity;
+        this.m = m;
+        this.efConstruction = efConstruction;
+        this.type = type;
+    }
+
+    /**
+     * Cosine similarity with the Elasticsearch HNSW defaults
+     */
+    public static VectorIndexOptions defaults() {
+        return new VectorIndexOptions("cosine", 16, 100, "hnsw");
+    }
+
+    /**
+     * Same graph settings with another vector storage type
+     */
+    public VectorIndexOptions withType(String type) {
+        return new VectorIndexOptions(similarity, m, efConstruction, type);
+    }
+
+    /**
+     * Read vector_similarity, hnsw_m, hnsw_ef_construction and vector_index_type from config.properties
+     */
+    public static VectorIndexOptions fromConfig() {
+        Properties props = new Properties();
+        try (InputStream input = VectorIndexOptions.class.getClassLoader().getResourceAsStream("config.properties")) {
+            if (input != null) {
+                props.load(input);
+            }
+        } catch (IOException e) {
+            System.err.println("Error loading configuration: " + e.getMessage());
+        }
+        VectorIndexOptions defaults = defaults();
+        return new VectorIndexOptions(
+                props.getProperty("vector_similarity", defaults.similarity).trim(),
+                Integer.parseInt(props.getProperty("hnsw_m", String.valueOf(defaults.m)).trim()),
+                Integer.parseInt(props.getProperty("hnsw_ef_construction", String.valueOf(defaults.efConstruction)).trim()),
+                props.getProperty("vector_index_type", defaults.type).trim());
+    }
+
+    /**
+     * Off-heap memory needed to keep the searched vectors and the HNSW graph in the
+     * page cache, following the sizing formulas of the Elasticsearch documentation
+     */
+    public long estimateVectorBytes(long vectorCount, int dims) {
+        long perVector = switch (type) {
+            case "int8_hnsw" -> dims + 4L;
+            case "int4_hnsw" -> (dims + 1) / 2 + 4L;
+            case "bbq_hnsw" -> (dims + 7) / 8 + 14L;
+            default -> 4L * (dims + 12);
+        };
+        long graph = 4L * m * vectorCount;
+        return perVector * vectorCount + graph;
+    }
+
+    public String getSimilarity() {
+        return similarity;
+    }
+
+    public int getM() {
+        return m;
+    }
+
+    public int getEfConstruction() {
+        return efConstruction;
+    }
+
+    public String getType() {
+        return type;
+    }
+}
@@ -0,0 +1,14 @@
+package org.elbadry;
+
+/**
+ * A URL waiting in the crawl frontier together with the depth it was found at.
+ */
+class CrawlTask {
+    final String url;
+    final int depth;
+
+    CrawlTask(String url, int depth) {
+        this.url = url;
+        this.depth = depth;
+    }
+}
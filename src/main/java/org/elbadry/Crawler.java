@@ -1,70 +1,275 @@
 package org.elbadry;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
+import org.db.BulkIndexer;
 import org.db.ElasticsearchService;
+import org.db.HnswIndex;
 import org.db.IndexManager;
+import org.db.VectorIndexOptions;
+import org.embeding.Embedding;
+import org.embeding.EmbeddingBatcher;
 import org.embeding.GenerateEmbeddings;
-import org.jsoup.Jsoup;
+import org.embeding.TextChunker;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 import org.jsoup.select.Elements;
-import org.outils.ObjectToMapConverter;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class Crawler {
-    private final Set<String> visitedUrl;
-    private final Queue<CrawlTask> queue;
+    // Every URL discovered so far, checked before a link enters the frontier
+    private final UrlSeenSet seenUrls;
+    private final UrlCanonicalizer canonicalizer;
+    // Incremental re-crawl: revisit known pages when due, with conditional requests
+    private final boolean RECRAWL;
+    private final RevisitPolicy revisitPolicy;
+    private final NearDuplicateDetector nearDuplicates; // null when near-duplicate pages are embedded too
+    private final AtomicLong nearDuplicateTextsSaved = new AtomicLong();
+    // Extract title, text and links while reading the body instead of building a jsoup DOM
+    private final boolean STREAMING_EXTRACTION;
+    private final int MAX_BODY_BYTES;
+    // One pooled HTTP client for the crawl, so pages reuse keep-alive and HTTP/2 connections
+    private final PageFetcher fetcher;
+    private final RobotsCache robots; // null when robots.txt is ignored
+    private final SitemapReader sitemaps; // null when the seed's sitemaps are not read
+    private final long HOST_DELAY_MS;
+    // Embed only the main content of pages, without navigation, footers and sidebars
+    private final boolean MAIN_CONTENT;
+    private final AtomicLong mainContentPages = new AtomicLong();
+    private final AtomicLong fullTextChars = new AtomicLong();
+    private final AtomicLong embeddedTextChars = new AtomicLong();
+    // URLs already done by the interrupted crawl being resumed, null otherwise
+    private UrlSeenSet resumedDone;
     private final int MAX_DEPTH;
     private final Set<String> blockedDomains;
     private final String baseUrl;
     private ElasticsearchService service;
     private final IndexManager indexManager;
     private final String INDEX_DB;
-    private final List<Map<String, Object>> bulkData;
-    private final List<String> bulkUrls;
-    private final int BULK_SIZE = 3;
+    private final String FETCH_INDEX; // Fetch states of crawled URLs, kept apart from the searched documents
+    private final int BULK_SIZE;
+    private final long BULK_MAX_BYTES;
+    private final long BULK_FLUSH_INTERVAL_MS;
+    private final int EMBED_BATCH_SIZE;
+    private final long EMBED_BATCH_WAIT_MS;
+    private final TextChunker chunker; // null keeps the single truncated vector per page
     private final int TIMEOUT_MS = 10000; // 10 seconds
     private static final int EMBEDDING_DIMENSION = 768; // Standard dimension for many embedding models
+    private static final int DEFAULT_CRAWL_THREADS = 1; // 1 keeps the original serial crawl
+    private static final long DEFAULT_HOST_DELAY_MS = 200;
+    private static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 2;
+    private static final int DEFAULT_STAGE_THREADS = 2;
+    private static final int DEFAULT_STAGE_QUEUE_CAPACITY = 64;
+    private static final int DEFAULT_BULK_SIZE = 50;
+    private static final long DEFAULT_BULK_MAX_BYTES = 5 * 1024 * 1024;
+    private static final long DEFAULT_BULK_FLUSH_INTERVAL_MS = 2000;
+    private static final String EMBEDDING_MODEL = "nomic-embed-text";
+    // Bytes looked at for a byte order mark or <meta charset> before streaming a body
+    private static final int CHARSET_SNIFF_BYTES = 4096;
+    private static final Pattern META_CHARSET = Pattern.compile("<meta[^>]+charset\\s*=\\s*[\"']?\\s*([\\w.:-]+)",
+            Pattern.CASE_INSENSITIVE);
+    private static final int DEFAULT_EMBED_BATCH_SIZE = 16;
+    private static final long DEFAULT_EMBED_BATCH_WAIT_MS = 50;
+    private static final int DEFAULT_CHUNK_MAX_TOKENS = 256;
+    private static final int DEFAULT_CHUNK_OVERLAP_TOKENS = 32;
+    private static final int DEFAULT_MAX_CHUNKS_PER_PAGE = 32;
+    private static final int DEFAULT_CHECKPOINT_PAGES = 50;
+    private static final int DEFAULT_LOCAL_INDEX_SAVE_MINUTES = 10;
+    private static final int DEFAULT_FRONTIER_BATCH_SIZE = 10_000;
+    private static final int DEFAULT_PRIORITY_SCHEDULED_URLS = 64;
+    // How often the priority crawl looks again for links while the bands are empty
+    private static final long IDLE_POLL_MS = 50;
+    private static final long DEFAULT_SEEN_EXACT_URLS = 10_000_000;
+    private static final double DEFAULT_SEEN_FALSE_POSITIVE_RATE = 0.001;
+    private static final String DEFAULT_CANONICAL_DROP_PARAMS = "utm_*,fbclid,gclid,msclkid,mc_cid,mc_eid";
+    private static final long HOUR_MS = 60 * 60 * 1000L;
+    private static final int DEFAULT_SITEMAP_MAX_URLS = 100000;
+    // Longer Crawl-delays are cut to this, so one site cannot stall a level
+    private static final long MAX_CRAWL_DELAY_MS = 60_000;
+    private static final int DEFAULT_MAX_BODY_BYTES = 2 * 1024 * 1024;
+    private final int CRAWL_THREADS;
+    private final int PARSE_THREADS;
+    private final int EMBED_THREADS;
+    private final int INDEX_THREADS;
+    private final int STAGE_QUEUE_CAPACITY;
+    private final Path LOCAL_INDEX_PATH; // null unless documents are also added to an in-process HNSW index
+    private final int LOCAL_INDEX_SAVE_MINUTES; // 0 saves the local index only when the crawl stops
+    private final int HNSW_M;
+    private final int HNSW_EF_CONSTRUCTION;
+    private final Path CRAWL_STATE_DIR;
+    private final int CHECKPOINT_PAGES;
+    private final int FRONTIER_BATCH_SIZE;
+    private final boolean PRIORITY_ORDER;
+    private final int PRIORITY_SCHEDULED_URLS;
+    private final long SEEN_EXACT_URLS;
+    private final double SEEN_FALSE_POSITIVE_RATE;
+    private final UrlScorer urlScorer;
+    private final int MAX_PAGES; // 0 for no page budget
+    private final long MAX_CRAWL_MS; // 0 for no time budget
+    private FrontierStore frontier;
+    private PriorityFrontier priorityFrontier; // null for the breadth-first order
+    private long crawlStartNanos;
+    // Scheduled URLs whose page has not been fully processed yet
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+    private final HostScheduler scheduler;
+    private final AtomicInteger pagesCrawled = new AtomicInteger();
+    private final AtomicInteger pagesFailed = new AtomicInteger();
 
-    private static class CrawlTask {
-        final String url;
-        final int depth;
+    // Pipeline stages, created for each crawl: fetch -> parse -> embed -> index
+    private StageMetrics fetchMetrics;
+    private PipelineStage<FetchedPage> parseStage;
+    private PipelineStage<ParsedPage> embedStage;
+    private PipelineStage<IndexedPage> indexStage;
+    private BulkIndexer bulkIndexer;
+    private BulkIndexer fetchStates; // writes to FETCH_INDEX, null unless RECRAWL
+    private EmbeddingBatcher embeddingBatcher;
+    private HnswIndex localIndex;
+    private long localIndexSaved; // modifications of the local index as of its last save
+    private ScheduledExecutorService localIndexSaver; // null when the local index is only saved at the end
 
-        CrawlTask(String url, int depth) {
-            this.url = url;
-            this.depth = depth;
-        }
+    /**
+     * @param previous  state stored with the page's document, null for a page never indexed
+     * @param extracted page content when it was extracted while streaming the body, else null
+     */
+    private record FetchedPage(String url, int depth, PageFetcher.Response response, boolean skipIndexing,
+                               FetchState previous, ExtractedPage extracted) {
+    }
+
+    /**
+     * @param url        document ID: the page's rel=canonical URL when it declared one, else fetchedUrl
+     * @param fetchedUrl frontier URL the page was fetched from
+     * @param text       full page text, stored for keyword search
+     * @param embedText  text to embed: the main content when asked for and found, else the full text
+     */
+    private record ParsedPage(String url, String fetchedUrl, String title, String text, String embedText,
+                              FetchState fetch) {
+    }
+
+    private record IndexedPage(String fetchedUrl, SiteData siteData, FetchState fetch) {
     }
 
     public Crawler() {
-        Properties props = loadConfig();
-        this.visitedUrl = new HashSet<>();
-        this.queue = new LinkedList<>();
-        this.MAX_DEPTH = Integer.parseInt(props.getProperty("max_Depth"));
-        this.blockedDomains = new HashSet<>(Arrays.asList(props.getProperty("blocked_Domains").split(",")));
-        this.baseUrl = props.getProperty("base_url");
-        this.INDEX_DB = props.getProperty("index_db");
-        this.service = new ElasticsearchService();
-        this.indexManager = new IndexManager();
-        this.bulkData = new ArrayList<>();
-        this.bulkUrls = new ArrayList<>();
+        this(null);
     }
 
     public Crawler(String baseUrl) {
         Properties props = loadConfig();
-        this.visitedUrl = new HashSet<>();
-        this.queue = new LinkedList<>();
+        this.SEEN_EXACT_URLS = Long.parseLong(
+                props.getProperty("seen_exact_urls", String.valueOf(DEFAULT_SEEN_EXACT_URLS)).trim());
+        this.SEEN_FALSE_POSITIVE_RATE = Double.parseDouble(props.getProperty("seen_false_positive_rate",
+                String.valueOf(DEFAULT_SEEN_FALSE_POSITIVE_RATE)).trim());
+        this.seenUrls = new UrlSeenSet(SEEN_EXACT_URLS, SEEN_FALSE_POSITIVE_RATE);
+        this.canonicalizer = new UrlCanonicalizer(
+                Arrays.asList(props.getProperty("canonical_drop_params", DEFAULT_CANONICAL_DROP_PARAMS).split(",")),
+                Boolean.parseBoolean(props.getProperty("canonical_force_https", "false").trim()),
+                Boolean.parseBoolean(props.getProperty("canonical_strip_trailing_slash", "false").trim()),
+                SEEN_EXACT_URLS, SEEN_FALSE_POSITIVE_RATE);
+        this.RECRAWL = Boolean.parseBoolean(props.getProperty("recrawl", "false").trim());
+        this.revisitPolicy = new RevisitPolicy(
+                (long) (Double.parseDouble(props.getProperty("revisit_min_hours", "1").trim()) * HOUR_MS),
+                (long) (Double.parseDouble(props.getProperty("revisit_initial_hours", "24").trim()) * HOUR_MS),
+                (long) (Double.parseDouble(props.getProperty("revisit_max_days", "30").trim()) * 24 * HOUR_MS));
+        this.nearDuplicates = Boolean.parseBoolean(props.getProperty("near_duplicates", "false").trim())
+                ? new NearDuplicateDetector(Integer.parseInt(props.getProperty("near_duplicate_max_distance", "3").trim()))
+                : null;
+        this.STREAMING_EXTRACTION = "streaming".equalsIgnoreCase(props.getProperty("html_extractor", "jsoup").trim());
+        this.MAX_BODY_BYTES = intProperty(props, "max_body_bytes", DEFAULT_MAX_BODY_BYTES);
+        this.fetcher = new PageFetcher(!"1.1".equals(props.getProperty("http_version", "2").trim()), TIMEOUT_MS,
+                MAX_BODY_BYTES);
+        this.MAIN_CONTENT = "main".equalsIgnoreCase(props.getProperty("embedded_text", "main").trim());
         this.MAX_DEPTH = Integer.parseInt(props.getProperty("max_Depth"));
         this.blockedDomains = new HashSet<>(Arrays.asList(props.getProperty("blocked_Domains").split(",")));
-        this.baseUrl = baseUrl;
+        this.baseUrl = baseUrl != null ? baseUrl : props.getProperty("base_url");
         this.INDEX_DB = props.getProperty("index_db");
+        this.FETCH_INDEX = INDEX_DB + "_fetch";
+        this.CRAWL_THREADS = intProperty(props, "crawl_threads", DEFAULT_CRAWL_THREADS);
+        this.HOST_DELAY_MS = Long.parseLong(
+                props.getProperty("host_delay_ms", String.valueOf(DEFAULT_HOST_DELAY_MS)).trim());
+        this.scheduler = new HostScheduler(HOST_DELAY_MS, Integer.parseInt(props.getProperty(
+                "max_connections_per_host", String.valueOf(DEFAULT_MAX_CONNECTIONS_PER_HOST)).trim()));
+        this.robots = Boolean.parseBoolean(props.getProperty("robots", "true").trim())
+                ? new RobotsCache(fetcher, props.getProperty("robots_agent", "*").trim(),
+                        (long) (Double.parseDouble(props.getProperty("robots_cache_hours", "24").trim()) * HOUR_MS),
+                        this::applyCrawlDelay)
+                : null;
+        this.sitemaps = Boolean.parseBoolean(props.getProperty("sitemaps", "false").trim())
+                ? new SitemapReader(fetcher, intProperty(props, "sitemap_max_urls", DEFAULT_SITEMAP_MAX_URLS))
+                : null;
+        this.PARSE_THREADS = intProperty(props, "parse_threads", DEFAULT_STAGE_THREADS);
+        this.EMBED_THREADS = intProperty(props, "embed_threads", DEFAULT_STAGE_THREADS);
+        this.EMBED_BATCH_SIZE = intProperty(props, "embed_batch_size", DEFAULT_EMBED_BATCH_SIZE);
+        this.EMBED_BATCH_WAIT_MS = Long.parseLong(
+                props.getProperty("embed_batch_wait_ms", String.valueOf(DEFAULT_EMBED_BATCH_WAIT_MS)).trim());
+        this.chunker = "chunk".equalsIgnoreCase(props.getProperty("embedding_mode", "truncate").trim())
+                ? new TextChunker(
+                        intProperty(props, "chunk_max_tokens", DEFAULT_CHUNK_MAX_TOKENS),
+                        Integer.parseInt(props.getProperty("chunk_overlap_tokens",
+                                String.valueOf(DEFAULT_CHUNK_OVERLAP_TOKENS)).trim()),
+                        intProperty(props, "max_chunks_per_page", DEFAULT_MAX_CHUNKS_PER_PAGE))
+                : null;
+        this.INDEX_THREADS = intProperty(props, "index_threads", DEFAULT_STAGE_THREADS);
+        this.STAGE_QUEUE_CAPACITY = intProperty(props, "stage_queue_capacity", DEFAULT_STAGE_QUEUE_CAPACITY);
         this.service = new ElasticsearchService();
         this.indexManager = new IndexManager();
-        this.bulkData = new ArrayList<>();
-        this.bulkUrls = new ArrayList<>();
+        this.BULK_SIZE = intProperty(props, "bulk_size", DEFAULT_BULK_SIZE);
+        this.BULK_MAX_BYTES = Long.parseLong(
+                props.getProperty("bulk_max_bytes", String.valueOf(DEFAULT_BULK_MAX_BYTES)).trim());
+        this.BULK_FLUSH_INTERVAL_MS = Long.parseLong(
+                props.getProperty("bulk_flush_interval_ms", String.valueOf(DEFAULT_BULK_FLUSH_INTERVAL_MS)).trim());
+        String localIndexPath = props.getProperty("local_index_path", "").trim();
+        this.LOCAL_INDEX_PATH = localIndexPath.isEmpty() ? null : Path.of(localIndexPath);
+        this.LOCAL_INDEX_SAVE_MINUTES = intProperty(props, "local_index_save_minutes", DEFAULT_LOCAL_INDEX_SAVE_MINUTES);
+        this.HNSW_M = intProperty(props, "hnsw_m", 16);
+        this.HNSW_EF_CONSTRUCTION = intProperty(props, "hnsw_ef_construction", 100);
+        this.CRAWL_STATE_DIR = Path.of(props.getProperty("crawl_state_dir", "crawl-state").trim());
+        this.CHECKPOINT_PAGES = intProperty(props, "checkpoint_pages", DEFAULT_CHECKPOINT_PAGES);
+        this.FRONTIER_BATCH_SIZE = intProperty(props, "frontier_batch_size", DEFAULT_FRONTIER_BATCH_SIZE);
+        this.PRIORITY_ORDER = "priority".equalsIgnoreCase(props.getProperty("frontier_order", "bfs").trim());
+        this.PRIORITY_SCHEDULED_URLS = intProperty(props, "priority_scheduled_urls", DEFAULT_PRIORITY_SCHEDULED_URLS);
+        this.urlScorer = UrlScorer.depth(Double.parseDouble(props.getProperty("priority_depth_weight", "1").trim()))
+                .plus(UrlScorer.inLinks(Double.parseDouble(props.getProperty("priority_inlink_weight", "1").trim())))
+                .plus(UrlScorer.freshness(
+                        Double.parseDouble(props.getProperty("priority_freshness_weight", "0.5").trim())))
+                .plus(UrlScorer.hostFairness(
+                        Double.parseDouble(props.getProperty("priority_host_weight", "0.25").trim())))
+                .plus(UrlScorer.urlPatterns(patternWeights(props.getProperty("priority_url_patterns", ""))));
+        this.MAX_PAGES = Math.max(0, Integer.parseInt(props.getProperty("max_pages", "0").trim()));
+        this.MAX_CRAWL_MS = (long) (Math.max(0, Double.parseDouble(
+                props.getProperty("max_crawl_minutes", "0").trim())) * 60_000);
+    }
+
+    /**
+     * Comma-separated pattern:weight pairs, e.g. {@code /docs/:2,/tag/:-1}
+     */
+    private static Map<String, Double> patternWeights(String value) {
+        Map<String, Double> weights = new LinkedHashMap<>();
+        for (String pair : value.split(",")) {
+            int colon = pair.lastIndexOf(':');
+            if (colon > 0) {
+                weights.put(pair.substring(0, colon).trim(), Double.parseDouble(pair.substring(colon + 1).trim()));
+            }
+        }
+        return weights;
     }
 
     private Properties loadConfig() {
@@ -82,6 +287,10 @@ public class Crawler {
         return props;
     }
 
+    private static int intProperty(Properties props, String key, int defaultValue) {
+        return Math.max(1, Integer.parseInt(props.getProperty(key, String.valueOf(defaultValue)).trim()));
+    }
+
     public void crawl() throws IOException {
         // Ensure index exists with proper mapping before starting
         ensureIndexExists();
@@ -100,6 +309,9 @@ public class Crawler {
             if (!indexManager.indexExists(INDEX_DB)) {
                 indexManager.createIndex(INDEX_DB, EMBEDDING_DIMENSION);
             }
+            if (RECRAWL && !indexManager.indexExists(FETCH_INDEX)) {
+                indexManager.createFetchStateIndex(FETCH_INDEX);
+            }
         } catch (IOException e) {
             System.err.println("Failed to create or check index: " + e.getMessage());
             throw e; // Re-throw as this is critical
@@ -107,44 +319,540 @@ public class Crawler {
     }
 
     /**
-     * Start crawling process using a queue-based approach instead of recursion
+     * Start crawling process using a queue-based approach instead of recursion.
+     * CRAWL_THREADS virtual-thread workers fetch from the per-host
+     * {@link HostScheduler} and hand pages to the parse, embed and index stages,
+     * each with its own bounded queue and workers, so a slow embedder no longer
+     * sets the pace of fetching. Depth levels are fetched and parsed one after
+     * another so that every URL is still reached at its shortest depth, exactly
+     * like a serial breadth-first crawl; embedding and indexing run behind.
+     * The frontier and visited set are checkpointed to a {@link FrontierStore},
+     * so an interrupted crawl of the same seed resumes where it stopped.
+     * With frontier_order=priority, a {@link PriorityFrontier} orders the crawl
+     * by score instead, so a crawl cut short by max_pages or max_crawl_minutes
+     * has fetched the best pages found; a stopped crawl resumes like any other.
      */
-    private void startCrawling(String startUrl) throws IOException {
-        // Unchanged
-        queue.add(new CrawlTask(startUrl, 0));
+    private void startCrawling(String startUrl) {
+        long startTime = System.nanoTime();
+        String canonicalStart = canonicalizer.canonicalize(startUrl);
+        if (canonicalStart == null) {
+            System.err.println("Not an http(s) URL: " + startUrl);
+            return;
+        }
+        startUrl = canonicalStart;
+        try {
+            // Band files are not level files: each order keeps its own state
+            frontier = FrontierStore.open(CRAWL_STATE_DIR, PRIORITY_ORDER ? "priority " + startUrl : startUrl,
+                    CHECKPOINT_PAGES, () -> {
+                        bulkIndexer.flush();
+                        if (fetchStates != null) {
+                            fetchStates.flush();
+                        }
+                    });
+        } catch (IOException e) {
+            System.err.println("Cannot open crawl state in " + CRAWL_STATE_DIR + ": " + e.getMessage());
+            return;
+        }
+        priorityFrontier = PRIORITY_ORDER
+                ? new PriorityFrontier(frontier, urlScorer, new UrlSeenSet(SEEN_EXACT_URLS, SEEN_FALSE_POSITIVE_RATE))
+                : null;
+        crawlStartNanos = startTime;
+        fetchMetrics = new StageMetrics("fetch", CRAWL_THREADS, scheduler::pendingCount);
+        parseStage = new PipelineStage<>("parse", PARSE_THREADS, STAGE_QUEUE_CAPACITY, this::parsePage)
+                .onFailure((page, e) -> pageFailed(page.url())).start();
+        // The embed stage only queues texts; EMBED_THREADS is the number of batched calls in flight
+        embedStage = new PipelineStage<>("embed", 1, STAGE_QUEUE_CAPACITY, this::embedPage)
+                .onFailure((page, e) -> pageFailed(page.fetchedUrl())).start();
+        embeddingBatcher = new EmbeddingBatcher(EMBEDDING_MODEL, EMBED_BATCH_SIZE, EMBED_BATCH_WAIT_MS,
+                STAGE_QUEUE_CAPACITY, EMBED_THREADS);
+        indexStage = new PipelineStage<>("index", INDEX_THREADS, STAGE_QUEUE_CAPACITY, this::indexPage)
+                .onFailure((page, e) -> pageFailed(page.fetchedUrl())).start();
+        bulkIndexer = new BulkIndexer(service, INDEX_DB, BULK_SIZE, BULK_MAX_BYTES, BULK_FLUSH_INTERVAL_MS);
+        fetchStates = RECRAWL
+                ? new BulkIndexer(service, FETCH_INDEX, BULK_SIZE, BULK_MAX_BYTES, BULK_FLUSH_INTERVAL_MS)
+                : null;
+        localIndex = openLocalIndex();
+        if (localIndex != null && LOCAL_INDEX_SAVE_MINUTES > 0) {
+            // Rewriting the whole graph file is too slow for every checkpoint
+            localIndexSaver = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "local-index-save");
+                t.setDaemon(true);
+                return t;
+            });
+            localIndexSaver.scheduleWithFixedDelay(this::saveLocalIndex,
+                    LOCAL_INDEX_SAVE_MINUTES, LOCAL_INDEX_SAVE_MINUTES, TimeUnit.MINUTES);
+        }
 
-        while (!queue.isEmpty()) {
-            CrawlTask task = queue.poll();
-            processUrl(task.url, task.depth);
+        boolean completed = false;
+        // Ctrl+C or a killed JVM keeps everything up to the last checkpoint; take one more on the way out
+        Thread checkpointOnExit = new Thread(() -> {
+            frontier.checkpoint();
+            saveLocalIndex();
+        }, "frontier-checkpoint");
+        Runtime.getRuntime().addShutdownHook(checkpointOnExit);
+        try {
+            int lowest = resumeOrSeed(startUrl);
+            boolean budgetReached = false;
+            if (priorityFrontier != null) {
+                budgetReached = !crawlByPriority(startTime);
+            } else {
+                for (int depth = lowest; depth <= MAX_DEPTH && frontier.hasLevel(depth); depth++) {
+                    frontier.startLevel(depth);
+                    crawlLevel(depth);
+                    parseStage.awaitIdle();
+                    // All links for the next level are logged; the level before this one has left the pipeline
+                    frontier.checkpoint();
+                    frontier.compactLevel(depth - 1, inFlight::contains);
 
+                    System.out.println(String.format("Level done, %.2f pages/s so far over %d host(s)",
+                            pagesPerSecond(startTime), scheduler.hostCount()));
+                    printStageReport(startTime);
+                    if (budgetExhausted()) {
+                        budgetReached = true;
+                        break;
+                    }
+                }
+            }
+            if (budgetReached) {
+                System.out.println("Crawl budget reached after " + pagesCrawled.get() + " page(s)");
+            }
+            completed = !budgetReached;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Crawl frontier failed, stopping: " + e.getMessage());
+        } finally {
+            closeStages();
+            closeFrontier(completed);
             try {
-                Thread.sleep(200);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
+                Runtime.getRuntime().removeShutdownHook(checkpointOnExit);
+            } catch (IllegalStateException e) {
+                // Already shutting down
             }
         }
 
-        System.out.println("\nCrawling completed!");
-        System.out.println("Total URLs visited: " + visitedUrl.size());
+        printCrawlSummary(startTime);
+        printStageReport(startTime);
+    }
+
+    /**
+     * Reload the visited set of an interrupted crawl and return the depth to
+     * restart from, or seed a new crawl at depth 0
+     */
+    private int resumeOrSeed(String startUrl) throws IOException {
+        if (frontier.isResumed()) {
+            UrlSeenSet done = new UrlSeenSet(Long.MAX_VALUE, DEFAULT_SEEN_FALSE_POSITIVE_RATE);
+            frontier.forEachVisited(url -> {
+                done.add(url);
+                seenUrls.add(url);
+            });
+            frontier.forEachQueued(line -> seenUrls.add(PriorityFrontier.urlOf(line)));
+            resumedDone = done;
+            int lowest = frontier.lowestLevel();
+            System.out.println("Resuming crawl of " + startUrl + " at depth " + frontier.getLevel()
+                    + " (" + done.size() + " URL(s) already done)");
+            if (lowest >= 0) {
+                return lowest;
+            }
+        }
+        seenUrls.add(startUrl);
+        enqueueSeed(startUrl, 0);
+        if (sitemaps != null) {
+            enqueueSitemapPages(startUrl);
+        }
+        if (RECRAWL) {
+            enqueueDuePages();
+        }
+        frontier.checkpoint();
+        return 0;
+    }
+
+    /**
+     * Seed the crawl with every page the seed site's sitemaps list, so pages
+     * no link reaches within MAX_DEPTH are crawled too. The sitemaps are the
+     * ones robots.txt names, or /sitemap.xml when it names none.
+     */
+    private void enqueueSitemapPages(String startUrl) {
+        String origin = RobotsCache.originOf(URI.create(startUrl));
+        List<String> listed = robots != null ? robots.rules(origin).getSitemaps() : List.of();
+        int[] added = {0};
+        int found = sitemaps.read(listed.isEmpty() ? List.of(origin + "/sitemap.xml") : listed, (loc, lastModified) -> {
+            String url = canonicalizer.canonicalize(loc);
+            if (url != null && !isBlockedDomain(url) && seenUrls.add(url)) {
+                enqueueSeed(url, lastModified);
+                added[0]++;
+            }
+        });
+        System.out.println("Sitemaps: " + found + " page(s) listed, " + added[0] + " new added to the frontier");
+    }
+
+    /**
+     * Queue a new URL at depth 0
+     *
+     * @param lastModified sitemap lastmod in epoch ms, 0 when unknown
+     */
+    private void enqueueSeed(String url, long lastModified) {
+        if (priorityFrontier != null) {
+            priorityFrontier.offer(url, 0, lastModified, true);
+        } else {
+            frontier.enqueue(0, url);
+        }
+    }
+
+    /**
+     * robots.txt asked for more time between requests than host_delay_ms
+     */
+    private void applyCrawlDelay(String origin, RobotsRules rules) {
+        long delay = Math.min(rules.getCrawlDelayMs(), MAX_CRAWL_DELAY_MS);
+        if (delay > HOST_DELAY_MS) {
+            scheduler.setHostDelay(HostScheduler.hostOf(origin), delay);
+            System.out.println("Crawl-delay of " + delay + " ms for " + origin);
+        }
+    }
+
+    /**
+     * Start a re-crawl from every crawled page due for a revisit, not only from
+     * the seed: pages answering 304 have no links to follow. Pages indexed
+     * while recrawl was off have no fetch state and are due too.
+     */
+    private void enqueueDuePages() {
+        try {
+            Set<String> dueIds = new LinkedHashSet<>(
+                    service.getDueIDs(FETCH_INDEX, "fetch.nextVisitAt", System.currentTimeMillis()));
+            Set<String> known = new HashSet<>(service.getIDsScroll(FETCH_INDEX));
+            for (String id : service.getIDsScroll(INDEX_DB)) {
+                if (!known.contains(id)) {
+                    dueIds.add(id);
+                }
+            }
+            int due = 0;
+            for (String id : dueIds) {
+                String url = canonicalizer.canonicalize(id);
+                if (url != null && !isBlockedDomain(url) && seenUrls.add(url)) {
+                    enqueueSeed(url, 0);
+                    due++;
+                }
+            }
+            System.out.println("Re-crawl: " + due + " indexed page(s) due for a revisit");
+        } catch (IOException e) {
+            System.err.println("Error listing pages due for a revisit: " + e.getMessage());
+        }
     }
 
     /**
-     * Process a single URL: fetch, parse, extract links and queue them
+     * Stream one depth's frontier file into the scheduler, FRONTIER_BATCH_SIZE
+     * admitted URLs at a time, so only one batch of tasks is held in memory
      */
-    private void processUrl(String url, int depth) {
-        // Updated to handle the new embedding format
-        if (visitedUrl.contains(url) || isBlockedDomain(url) || depth > MAX_DEPTH || url.contains("#")) {
+    private void crawlLevel(int depth) throws IOException, InterruptedException {
+        try (BufferedReader reader = frontier.openLevel(depth)) {
+            String url = "";
+            while (url != null && !budgetExhausted()) {
+                int admitted = 0;
+                while (admitted < FRONTIER_BATCH_SIZE && (url = reader.readLine()) != null) {
+                    CrawlTask task = new CrawlTask(url, depth);
+                    if (!url.isEmpty() && shouldVisit(task)) {
+                        inFlight.add(url);
+                        scheduler.add(task);
+                        admitted++;
+                    }
+                }
+                if (admitted > 0) {
+                    runWorkers();
+                }
+            }
+        }
+    }
+
+    /**
+     * Crawl best-first: the workers keep running while the host scheduler is
+     * topped up to PRIORITY_SCHEDULED_URLS with the best queued URLs each time
+     * half of them were taken, so fetches follow the scores and links found on
+     * the way compete with the URLs queued before them
+     *
+     * @return false when the page or time budget stopped the crawl
+     */
+    private boolean crawlByPriority(long startTime) throws IOException, InterruptedException {
+        int lowWater = Math.max(1, PRIORITY_SCHEDULED_URLS / 2);
+        boolean drained = false;
+        long takenSinceReport = 0;
+        scheduler.startFeeding(lowWater);
+        List<Thread> workers = startWorkers();
+        try {
+            while (!drained && !budgetExhausted()) {
+                int pending = scheduler.awaitLowOnTasks(IDLE_POLL_MS);
+                if (pending >= lowWater) {
+                    continue;
+                }
+                // Checked first: only pages still in flight can queue more links
+                boolean idle = inFlight.isEmpty();
+                List<CrawlTask> batch = priorityFrontier.next(PRIORITY_SCHEDULED_URLS - pending, this::shouldVisit);
+                for (CrawlTask task : batch) {
+                    inFlight.add(task.url);
+                    scheduler.add(task);
+                }
+                takenSinceReport += batch.size();
+                if (batch.isEmpty()) {
+                    drained = idle;
+                    if (!idle) {
+                        Thread.sleep(IDLE_POLL_MS);
+                    }
+                }
+                if (takenSinceReport >= FRONTIER_BATCH_SIZE) {
+                    takenSinceReport = 0;
+                    priorityFrontier.compact(inFlight::contains);
+                    System.out.println(String.format("%.2f pages/s so far over %d host(s)",
+                            pagesPerSecond(startTime), scheduler.hostCount()));
+                    printStageReport(startTime);
+                }
+            }
+        } finally {
+            scheduler.stopFeeding();
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        }
+        priorityFrontier.compact(inFlight::contains);
+        return drained;
+    }
+
+    /**
+     * max_pages pages fetched or max_crawl_minutes spent; workers finish the
+     * fetch they started, so up to crawl_threads pages more can be fetched
+     */
+    private boolean budgetExhausted() {
+        return (MAX_PAGES > 0 && pagesCrawled.get() >= MAX_PAGES)
+                || (MAX_CRAWL_MS > 0 && System.nanoTime() - crawlStartNanos >= MAX_CRAWL_MS * 1_000_000);
+    }
+
+    private void runWorkers() throws InterruptedException {
+        for (Thread worker : startWorkers()) {
+            worker.join();
+        }
+    }
+
+    private List<Thread> startWorkers() {
+        List<Thread> workers = new ArrayList<>(CRAWL_THREADS);
+        for (int i = 0; i < CRAWL_THREADS; i++) {
+            workers.add(Thread.ofVirtual().name("crawler-", i).start(this::runWorker));
+        }
+        return workers;
+    }
+
+    /**
+     * Delete the state of a completed crawl, keep it for a resume otherwise
+     */
+    private void closeFrontier(boolean completed) {
+        try {
+            if (completed) {
+                frontier.finish();
+            } else {
+                frontier.close();
+                System.out.println("Crawl state saved in " + CRAWL_STATE_DIR + ", crawl the same URL again to resume");
+            }
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Failed to close crawl state: " + e.getMessage());
+        }
+    }
+
+    /**
+     * The page needs no more work; it will not be fetched again on resume
+     */
+    private void markProcessed(String url) {
+        inFlight.remove(url);
+        frontier.markVisited(url);
+    }
+
+    /**
+     * A stage gave up on a page; it counts as processed, or every resume would fetch it again
+     */
+    private void pageFailed(String url) {
+        pagesFailed.incrementAndGet();
+        markProcessed(url);
+    }
+
+    private void closeStages() {
+        try {
+            // Upstream first, so each stage is drained before the next one stops
+            parseStage.close();
+            embedStage.close();
+            embeddingBatcher.close();
+            indexStage.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            recordNearDuplicates();
+            // Final flush of whatever the index stage left in the bulk buffer
+            bulkIndexer.close();
+            if (fetchStates != null) {
+                fetchStates.close();
+            }
+            if (localIndexSaver != null) {
+                localIndexSaver.shutdown();
+            }
+            saveLocalIndex();
+        }
+    }
+
+    /**
+     * Store on each canonical page the near-duplicates mapped to it; done once
+     * the index stage is drained, so the canonical documents exist
+     */
+    private void recordNearDuplicates() {
+        if (nearDuplicates == null) {
             return;
         }
+        nearDuplicates.forEachCluster((canonical, members) -> bulkIndexer.update(canonical,
+                Map.of("duplicates", members), 64 + members.stream().mapToLong(url -> url.length() + 3).sum()));
+    }
+
+    /**
+     * Load the in-process HNSW index to extend, or start an empty one
+     */
+    private HnswIndex openLocalIndex() {
+        if (LOCAL_INDEX_PATH == null) {
+            return null;
+        }
+        try {
+            if (Files.exists(LOCAL_INDEX_PATH)) {
+                return HnswIndex.load(LOCAL_INDEX_PATH, false);
+            }
+        } catch (IOException e) {
+            System.err.println("Could not load local vector index, starting a new one: " + e.getMessage());
+        }
+        return new HnswIndex(EMBEDDING_DIMENSION, HNSW_M, HNSW_EF_CONSTRUCTION);
+    }
+
+    private synchronized void saveLocalIndex() {
+        if (localIndex == null || localIndex.modifications() == localIndexSaved) {
+            return;
+        }
+        try {
+            long modifications = localIndex.modifications();
+            localIndex.save(LOCAL_INDEX_PATH);
+            localIndexSaved = modifications;
+            System.out.println("Saved " + localIndex.size() + " vectors to local index " + LOCAL_INDEX_PATH);
+        } catch (IOException e) {
+            System.err.println("Failed to save local vector index: " + e.getMessage());
+        }
+    }
+
+    private void printStageReport(long startTime) {
+        System.out.println("  " + fetchMetrics.report(startTime));
+        System.out.println("  " + fetcher.report());
+        if (robots != null) {
+            System.out.println("  " + robots.report());
+        }
+        if (sitemaps != null) {
+            System.out.println("  " + sitemaps.report());
+        }
+        System.out.println("  " + parseStage.getMetrics().report(startTime));
+        System.out.println("  " + embedStage.getMetrics().report(startTime));
+        System.out.println("  " + embeddingBatcher.report());
+        System.out.println("  " + GenerateEmbeddings.getCircuitBreaker().report());
+        System.out.println("  " + GenerateEmbeddings.getCache().report());
+        System.out.println("  " + indexStage.getMetrics().report(startTime));
+        System.out.println("  " + bulkIndexer.report());
+        if (fetchStates != null) {
+            System.out.println("  fetch states " + fetchStates.report());
+        }
+        System.out.println("  " + frontier.report());
+        if (priorityFrontier != null) {
+            System.out.println("  " + priorityFrontier.report());
+        }
+        System.out.println("  " + seenUrls.report());
+        System.out.println("  " + canonicalizer.report());
+        System.out.println("  " + revisitPolicy.report());
+        if (nearDuplicates != null) {
+            System.out.println("  " + nearDuplicates.report(nearDuplicateTextsSaved.get(), EMBED_BATCH_SIZE));
+        }
+        if (MAIN_CONTENT) {
+            long full = fullTextChars.get();
+            long embedded = embeddedTextChars.get();
+            System.out.printf("  main content: %d page(s) trimmed, %d of %d text characters embedded (%.1f%% left out)%n",
+                    mainContentPages.get(), embedded, full, full == 0 ? 0.0 : 100.0 * (full - embedded) / full);
+        }
+    }
+
+    private void runWorker() {
+        try {
+            CrawlTask task;
+            while (!budgetExhausted() && (task = scheduler.take()) != null) {
+                long start = System.nanoTime();
+                FetchedPage page;
+                try {
+                    page = fetchPage(task);
+                } finally {
+                    scheduler.release(task);
+                    fetchMetrics.record(start);
+                }
+                if (page != null) {
+                    parseStage.submit(page);
+                } else {
+                    markProcessed(task.url);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Filter a task read from the frontier. Links are deduplicated before they
+     * are enqueued, so only URLs finished before a resume need skipping here.
+     */
+    private boolean shouldVisit(CrawlTask task) {
+        if (isBlockedDomain(task.url) || task.depth > MAX_DEPTH) {
+            return false;
+        }
+        return resumedDone == null || !resumedDone.contains(task.url);
+    }
 
-        visitedUrl.add(url);
+    private double pagesPerSecond(long startTime) {
+        double seconds = (System.nanoTime() - startTime) / 1_000_000_000.0;
+        return seconds > 0 ? pagesCrawled.get() / seconds : 0;
+    }
 
+    private void printCrawlSummary(long startTime) {
+        double seconds = (System.nanoTime() - startTime) / 1_000_000_000.0;
+        System.out.println("\nCrawling completed!");
+        System.out.println("Total URLs discovered: " + seenUrls.size());
+        System.out.println(String.format("Pages crawled: %d in %.1f s (%.2f pages/s, %d worker(s))",
+                pagesCrawled.get(), seconds, pagesPerSecond(startTime), CRAWL_THREADS));
+        if (pagesFailed.get() > 0) {
+            System.out.println("Pages dropped after an error in the pipeline: " + pagesFailed.get());
+        }
+        try {
+            indexManager.printVectorMemory(INDEX_DB, EMBEDDING_DIMENSION, VectorIndexOptions.fromConfig());
+        } catch (IOException e) {
+            System.err.println("Could not read the index stats: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Fetch stage: download the page body, holding the host's connection slot
+     */
+    private FetchedPage fetchPage(CrawlTask task) {
+        // The URL has already been deduplicated and filtered by shouldVisit
+        String url = task.url;
+        if (robots != null && !robots.isAllowed(url)) {
+            System.out.println("Disallowed by robots.txt: " + url);
+            return null;
+        }
         boolean skipIndexing = false;
+        FetchState previous = null;
         // Check if URL already exists in Elasticsearch
         try {
-            skipIndexing = service.documentExists(INDEX_DB, url);
-            if (skipIndexing) {
-                System.out.println("URL already indexed: " + url + " (skipping content indexing)");
+            if (RECRAWL) {
+                previous = storedFetchState(url);
+                if (previous != null && !previous.isDue(System.currentTimeMillis())) {
+                    revisitPolicy.recordNotDue();
+                    return null;
+                }
+            } else {
+                skipIndexing = service.documentExists(INDEX_DB, url);
+                if (skipIndexing) {
+                    System.out.println("URL already indexed: " + url + " (skipping content indexing)");
+                }
             }
         } catch (IOException e) {
             System.err.println("Error checking URL in database: " + e.getMessage());
@@ -152,43 +860,349 @@ public class Crawler {
         }
 
         try {
-            // Fetch and parse the page
-            Document doc = Jsoup.connect(url).timeout(TIMEOUT_MS).get();
+            // A server that still has the same version answers 304 without a body
+            Map<String, String> conditional = new HashMap<>();
+            if (previous != null && previous.etag() != null) {
+                conditional.put("If-None-Match", previous.etag());
+            }
+            if (previous != null && previous.lastModified() != null) {
+                conditional.put("If-Modified-Since", previous.lastModified());
+            }
+            PageFetcher.Response response = fetcher.fetch(url, conditional);
+            ExtractedPage extracted = null;
+            if (!STREAMING_EXTRACTION || response.statusCode() == 304) {
+                response.bufferUp();
+            } else {
+                BufferedInputStream in = new BufferedInputStream(response.bodyStream(), CHARSET_SNIFF_BYTES);
+                try (Reader body = new InputStreamReader(in, sniffCharset(in, response))) {
+                    extracted = StreamingHtmlExtractor.extract(body, response.url(), MAX_BODY_BYTES, MAIN_CONTENT);
+                }
+            }
+            pagesCrawled.incrementAndGet();
+            System.out.println("Depth: " + task.depth + " [" + url + "]");
+            return new FetchedPage(url, task.depth, response, skipIndexing, previous, extracted);
+        } catch (IOException e) {
+            System.err.println("Error crawling " + url + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Fetch state of a crawled page. Pages indexed while recrawl was off get
+     * one from a hash of their stored text.
+     */
+    private FetchState storedFetchState(String url) throws IOException {
+        FetchState state = FetchState.fromSource(service.getFields(FETCH_INDEX, url, List.of("fetch")));
+        if (state != null) {
+            return state;
+        }
+        Map<?, ?> text = service.getFields(INDEX_DB, url, List.of("scrapedData"));
+        if (text == null) {
+            return null;
+        }
+        Object scrapedData = text.get("scrapedData");
+        return new FetchState(null, null, FetchState.hash(scrapedData instanceof String s ? s : ""),
+                0, 0, 0, 0, 0, 0, 0);
+    }
+
+    /**
+     * Store the state in the fetch-state index under the URL it was fetched
+     * from, which differs from the document ID for rel=canonical pages. Only
+     * re-crawls read it back.
+     */
+    private void saveFetchState(String id, FetchState state) {
+        if (fetchStates != null) {
+            fetchStates.add(id, Map.of("fetch", state), 512);
+        }
+    }
+
+    /**
+     * Parse stage: build the DOM (unless the page was extracted while its body
+     * was streamed), queue its links for the next level and pass the text on
+     * to the embedder
+     */
+    private void parsePage(FetchedPage page) {
+        FetchState previous = page.previous();
+        if (previous != null && page.response().statusCode() == 304) {
+            revisitPolicy.recordNotModified();
+            saveFetchState(page.url(), revisitPolicy.next(previous, null, null, previous.contentHash(),
+                    System.currentTimeMillis()));
+            markProcessed(page.url());
+            return;
+        }
+
+        ExtractedPage content = page.extracted();
+        if (content == null) {
+            try {
+                content = extract(page.response().parse(), MAIN_CONTENT);
+            } catch (IOException e) {
+                System.err.println("Error parsing " + page.url() + ": " + e.getMessage());
+                markProcessed(page.url());
+                return;
+            }
+        }
+
+        // Extract all links from the page - do this regardless of whether we index the content
+        if (page.depth() < MAX_DEPTH) {
+            for (String link : content.links()) {
+                String nextUrl = canonicalizer.canonicalize(link);
+                if (nextUrl == null || isBlockedDomain(nextUrl)) {
+                    continue;
+                }
+                boolean isNew = seenUrls.add(nextUrl);
+                canonicalizer.recordLink(link, nextUrl, isNew);
+                if (priorityFrontier != null) {
+                    priorityFrontier.offer(nextUrl, page.depth() + 1, 0, isNew);
+                } else if (isNew) {
+                    frontier.enqueue(page.depth() + 1, nextUrl);
+                }
+            }
+        }
+
+        // A page naming another URL as canonical is indexed under that URL, once
+        String documentId = page.url();
+        boolean duplicate = false;
+        String declared = content.canonical() != null ? canonicalizer.canonicalize(content.canonical()) : null;
+        if (declared != null && !declared.equals(page.url()) && !isBlockedDomain(declared)) {
+            duplicate = !seenUrls.add(declared);
+            canonicalizer.recordDeclaredCanonical(duplicate);
+            documentId = declared;
+        }
+
+        // Only store the data if it's not already in the database; changes are judged on the embedded text
+        String text = content.mainText() != null ? content.mainText() : content.text();
+        FetchState fetch = null;
+        if (!page.skipIndexing()) {
+            String contentHash = FetchState.hash(text);
+            String etag = page.response().header("ETag");
+            String lastModified = page.response().header("Last-Modified");
+            long now = System.currentTimeMillis();
+            if (previous == null) {
+                fetch = revisitPolicy.first(etag, lastModified, contentHash, now);
+            } else {
+                fetch = revisitPolicy.next(previous, etag, lastModified, contentHash, now);
+                boolean changed = !contentHash.equals(previous.contentHash());
+                revisitPolicy.recordCompared(changed);
+                if (!changed) {
+                    // Same text: keep the document and its embedding, only the schedule moves
+                    saveFetchState(page.url(), fetch);
+                    fetch = null;
+                }
+            }
+        }
+        if (duplicate) {
+            // Not indexed again, but a re-crawl still finds its state under the fetched URL
+            if (fetch != null) {
+                saveFetchState(page.url(), fetch);
+            }
+            fetch = null;
+        }
+
+        if (fetch != null && nearDuplicates != null) {
+            NearDuplicateDetector.Match match = nearDuplicates.check(documentId, text);
+            if (match != null) {
+                System.out.println("Near-duplicate of " + match.canonicalUrl() + " (" + match.distance()
+                        + " bit(s) apart), not indexed: " + documentId);
+                nearDuplicateTextsSaved.addAndGet(chunker != null ? chunker.chunk(text).size() : 1);
+                fetch = null;
+            }
+        }
+
+        if (fetch != null) {
+            if (MAIN_CONTENT) {
+                if (content.mainText() != null) {
+                    mainContentPages.incrementAndGet();
+                }
+                fullTextChars.addAndGet(content.text().length());
+                embeddedTextChars.addAndGet(text.length());
+            }
+            submit(embedStage, new ParsedPage(documentId, page.url(), content.title(), content.text(), text, fetch));
+        } else {
+            markProcessed(page.url());
+        }
+    }
+
+    /**
+     * Absolute URLs of the page's links, without empty links; fragments are
+     * left for the canonicalizer to strip
+     */
+    static List<String> extractLinks(Document doc) {
+        Elements links = doc.select("a[href]");
+        List<String> urls = new ArrayList<>(links.size());
+        for (Element link : links) {
+            String nextUrl = link.attr("abs:href");
+            if (!nextUrl.isEmpty()) {
+                urls.add(nextUrl);
+            }
+        }
+        return urls;
+    }
+
+    /**
+     * Title, text, links and rel=canonical href of a parsed page, and its main
+     * content when asked for
+     */
+    static ExtractedPage extract(Document doc, boolean mainContent) {
+        Element canonical = doc.selectFirst("link[rel=canonical][href]");
+        String href = canonical != null ? canonical.attr("abs:href") : "";
+        return new ExtractedPage(doc.title(), doc.text(), extractLinks(doc), href.isEmpty() ? null : href,
+                mainContent ? MainContentExtractor.of(doc) : null);
+    }
+
+    /**
+     * Charset of a body about to be streamed, picked like jsoup does: a byte order
+     * mark (which is skipped), then the Content-Type header, then the first
+     * &lt;meta charset&gt; or http-equiv in the head, else UTF-8
+     */
+    private static Charset sniffCharset(BufferedInputStream in, PageFetcher.Response response) throws IOException {
+        in.mark(CHARSET_SNIFF_BYTES);
+        byte[] head = in.readNBytes(CHARSET_SNIFF_BYTES);
+        in.reset();
+        if (head.length >= 3 && (head[0] & 0xFF) == 0xEF && (head[1] & 0xFF) == 0xBB && (head[2] & 0xFF) == 0xBF) {
+            in.skipNBytes(3);
+            return StandardCharsets.UTF_8;
+        }
+        if (head.length >= 2 && (head[0] & 0xFF) == 0xFE && (head[1] & 0xFF) == 0xFF) {
+            in.skipNBytes(2);
+            return StandardCharsets.UTF_16BE;
+        }
+        if (head.length >= 2 && (head[0] & 0xFF) == 0xFF && (head[1] & 0xFF) == 0xFE) {
+            in.skipNBytes(2);
+            return StandardCharsets.UTF_16LE;
+        }
+        Charset declared = charsetOf(response.charset());
+        if (declared != null) {
+            return declared;
+        }
+        Matcher meta = META_CHARSET.matcher(new String(head, StandardCharsets.ISO_8859_1));
+        if (meta.find()) {
+            Charset charset = charsetOf(meta.group(1));
+            // A page read as ASCII to find this tag is not UTF-16
+            if (charset != null && !charset.name().startsWith("UTF-16")) {
+                return charset;
+            }
+        }
+        return StandardCharsets.UTF_8;
+    }
 
-            System.out.println("Depth: " + depth + " [" + url + "]");
+    /**
+     * @return the named charset, null when it is missing or unknown
+     */
+    private static Charset charsetOf(String name) {
+        try {
+            return name != null ? Charset.forName(name) : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
 
-            // Only store the data if it's not already in the database
-            if (!skipIndexing) {
-                // Get the embedding as a single vector
-                List<Double> embedding = GenerateEmbeddings.getEmbeddings("nomic-embed-text", doc.text());
+    /**
+     * Embed stage: queue the page text in the embedding batcher; the page moves
+     * on to the index stage once its batch comes back
+     */
+    private void embedPage(ParsedPage page) {
+        if (chunker != null) {
+            embedPassages(page);
+            return;
+        }
+        try {
+            embeddingBatcher.submit(page.embedText()).exceptionally(e -> Embedding.EMPTY).thenAccept(embedding -> {
                 if (embedding.isEmpty()) {
-                    System.err.println("Warning: Could not generate embedding for " + url);
+                    System.err.println("Warning: Could not generate embedding for " + page.url());
                     // Continue processing anyway
                 }
+                submitForIndexing(page, new SiteData(page.url(), page.title(), page.text(), embedding));
+            }).exceptionally(e -> embedFailed(page, e));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 
-                SiteData siteData = new SiteData(url, doc.title(), doc.text(), embedding);
-                try {
-                    // Convert to map and store data
-                    Map<String, Object> dataMap = ObjectToMapConverter.convertToMap(siteData);
-                    service.storeData(siteData.getUrl(), INDEX_DB, dataMap);
-                } catch (JsonProcessingException e) {
-                    System.err.println("Failed to convert data for URL " + url + ": " + e.getMessage());
+    /**
+     * Chunked variant of the embed stage: every passage of the page goes through
+     * the batcher, so passages of several pages share embed calls. The first
+     * passage's vector doubles as the page-level embedding.
+     */
+    private void embedPassages(ParsedPage page) {
+        List<String> chunks = chunker.chunk(page.embedText());
+        List<CompletableFuture<Embedding>> vectors = new ArrayList<>(chunks.size());
+        try {
+            for (String chunk : chunks) {
+                // A failed batch loses its passages, like an empty vector
+                vectors.add(embeddingBatcher.submit(chunk).exceptionally(e -> Embedding.EMPTY));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        CompletableFuture.allOf(vectors.toArray(new CompletableFuture<?>[0])).thenRun(() -> {
+            List<Passage> passages = new ArrayList<>(chunks.size());
+            for (int i = 0; i < chunks.size(); i++) {
+                Embedding embedding = vectors.get(i).join();
+                if (!embedding.isEmpty()) {
+                    passages.add(new Passage(chunks.get(i), embedding));
                 }
             }
+            if (passages.isEmpty()) {
+                System.err.println("Warning: Could not generate embedding for " + page.url());
+            }
+            Embedding pageEmbedding = passages.isEmpty() ? Embedding.EMPTY : passages.get(0).getEmbedding();
+            submitForIndexing(page, new SiteData(page.url(), page.title(), page.text(), pageEmbedding, passages));
+        }).exceptionally(e -> embedFailed(page, e));
+    }
 
-            // Extract all links from the page - do this regardless of whether we indexed the content
-            Elements links = doc.select("a[href]");
+    /**
+     * The callback run when a page's vectors came back threw
+     */
+    private Void embedFailed(ParsedPage page, Throwable error) {
+        System.err.println("Error in embed stage for " + page.url() + ": " + error.getMessage());
+        pageFailed(page.fetchedUrl());
+        return null;
+    }
 
-            // Queue links for processing
-            for (Element link : links) {
-                String nextUrl = link.attr("abs:href");
-                if (!nextUrl.isEmpty() && !visitedUrl.contains(nextUrl) && !isBlockedDomain(nextUrl) && !nextUrl.contains("#")) {
-                    queue.add(new CrawlTask(nextUrl, depth + 1));
+    private void submitForIndexing(ParsedPage page, SiteData siteData) {
+        submit(indexStage, new IndexedPage(page.fetchedUrl(), siteData, page.fetch()));
+    }
+
+    /**
+     * Index stage: hand the document to the bulk indexer. It is serialized
+     * straight into the request body, without an intermediate Map.
+     */
+    private void indexPage(IndexedPage page) {
+        SiteData siteData = page.siteData();
+        bulkIndexer.add(siteData.getUrl(), siteData, siteData.estimateSize());
+        saveFetchState(page.fetchedUrl(), page.fetch());
+        addToLocalIndex(siteData);
+        markProcessed(page.fetchedUrl());
+    }
+
+    /**
+     * Passage vectors all point back to their page, the search keeps its best one.
+     * A re-crawled page replaces the vectors stored for it earlier.
+     */
+    private void addToLocalIndex(SiteData siteData) {
+        if (localIndex == null) {
+            return;
+        }
+        List<float[]> vectors = new ArrayList<>();
+        if (siteData.getPassages() != null && !siteData.getPassages().isEmpty()) {
+            for (Passage passage : siteData.getPassages()) {
+                if (passage.getEmbedding().dims() == localIndex.getDims()) {
+                    vectors.add(passage.getEmbedding().values());
                 }
             }
+        } else if (siteData.getEmbedding() != null && siteData.getEmbedding().dims() == localIndex.getDims()) {
+            vectors.add(siteData.getEmbedding().values());
+        }
+        localIndex.replace(siteData.getUrl(), vectors);
+    }
 
-        } catch (IOException e) {
-            System.err.println("Error crawling " + url + ": " + e.getMessage());
+    private static <T> void submit(PipelineStage<T> stage, T item) {
+        try {
+            stage.submit(item);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
@@ -197,9 +1211,13 @@ public class Crawler {
         return blockedDomains.stream().anyMatch(url.toLowerCase()::contains);
     }
 
+    /**
+     * URLs are only kept as fingerprints, so this prints how many were seen;
+     * each fetched URL is logged as it is crawled
+     */
     public void printVisitedUrls() {
-        System.out.println("\nVisited URLs:");
-        visitedUrl.forEach(System.out::println);
+        System.out.println("\nVisited URLs: " + seenUrls.size() + " discovered, " + pagesCrawled.get() + " fetched");
+        System.out.println(seenUrls.report());
     }
 
     public ElasticsearchService getService() {
@@ -0,0 +1,13 @@
+package org.elbadry;
+
+import java.util.List;
+
+/**
+ * What the crawler keeps of a page's HTML, from either extraction path
+ *
+ * @param links     absolute hrefs of the page's links, without empty ones
+ * @param canonical absolute href of the page's {@code <link rel=canonical>}, or null
+ * @param mainText  text without navigation and other boilerplate, null when not extracted or too short
+ */
+public record ExtractedPage(String title, String text, List<String> links, String canonical, String mainText) {
+}
@@ -0,0 +1,63 @@
+package org.elbadry;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+
+/**
+ * What the crawler knows about a page's last fetch, stored with its document
+ * under "fetch": HTTP validators for conditional requests, a hash of the
+ * extracted text, and the change history that sets the next revisit.
+ *
+ * @param etag         ETag header of the last full response, or null
+ * @param lastModified Last-Modified header of the last full response, or null
+ * @param contentHash  hash of the extracted text, see {@link #hash(String)}
+ * @param fetchedAt    epoch millis of the last check
+ * @param changedAt    epoch millis of the last check that found a change
+ * @param intervalMs   current revisit interval
+ * @param nextVisitAt  fetchedAt + intervalMs, indexed for the due-pages query
+ * @param checks       checks after the first fetch
+ * @param changes      checks that found the text changed
+ * @param observedMs   time covered by those checks
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record FetchState(String etag, String lastModified, String contentHash, long fetchedAt, long changedAt,
+                         long intervalMs, long nextVisitAt, int checks, int changes, long observedMs) {
+
+    public boolean isDue(long now) {
+        return now >= nextVisitAt;
+    }
+
+    /**
+     * Read the "fetch" object of a document's _source, null when it has none
+     */
+    static FetchState fromSource(Map<?, ?> source) {
+        if (source == null || !(source.get("fetch") instanceof Map<?, ?> fetch)) {
+            return null;
+        }
+        return new FetchState((String) fetch.get("etag"), (String) fetch.get("lastModified"),
+                (String) fetch.get("contentHash"), number(fetch, "fetchedAt"), number(fetch, "changedAt"),
+                number(fetch, "intervalMs"), number(fetch, "nextVisitAt"), (int) number(fetch, "checks"),
+                (int) number(fetch, "changes"), number(fetch, "observedMs"));
+    }
+
+    private static long number(Map<?, ?> map, String key) {
+        return map.get(key) instanceof Number number ? number.longValue() : 0;
+    }
+
+    /**
+     * 128-bit hex digest of a page's extracted text
+     */
+    static String hash(String text) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
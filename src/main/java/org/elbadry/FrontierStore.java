@@ -0,0 +1,489 @@
+package org.elbadry;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Crawl frontier and visited set kept on disk so that a crawl can resume
+ * where it stopped. Each seed URL gets its own directory holding:
+ * <ul>
+ *     <li>level-N.log: append-only list of URLs discovered for depth N (or
+ *     queued in priority band N by {@link PriorityFrontier})</li>
+ *     <li>visited.log: append-only list of URLs that were fully processed</li>
+ *     <li>state.properties: seed and current depth, replaced atomically</li>
+ * </ul>
+ * Links and visited URLs are buffered and written at checkpoints, links
+ * first, so a URL on the visited log always has its outgoing links on disk
+ * too. A crash loses at most the pages processed since the last checkpoint,
+ * and those are fetched again. Only the buffers live in heap, so the frontier
+ * can hold more URLs than memory. The directory is deleted once the crawl completes.
+ */
+public class FrontierStore implements AutoCloseable {
+    private static final String VISITED_LOG = "visited.log";
+    private static final String STATE_FILE = "state.properties";
+    private static final int MAX_BUFFERED_LINKS = 50_000;
+
+    private final Path dir;
+    private final String seed;
+    private final int checkpointPages;
+    private final Runnable beforeCheckpoint;
+    private final boolean resumed;
+    private int level;
+
+    private final Object lock = new Object();
+    // One checkpoint at a time; beforeCheckpoint runs under this lock only
+    private final Object checkpointLock = new Object();
+    private final Map<Integer, List<String>> pendingLinks = new HashMap<>();
+    private int pendingLinkCount;
+    private List<String> pendingVisited = new ArrayList<>();
+    private final Map<Integer, AppendLog> levelLogs = new HashMap<>();
+    // Complete lines on disk per level file, counted on first use for files found on resume
+    private final Map<Integer, Long> levelLines = new HashMap<>();
+    private final Map<Integer, LevelReader> levelReaders = new HashMap<>();
+    private final AppendLog visitedLog;
+
+    private long linksLogged;
+    private long pagesCheckpointed;
+    private long checkpoints;
+    private long compactedLines;
+
+    /**
+     * One append-only text file, synced to disk on {@link #sync()}
+     */
+    private static class AppendLog {
+        final FileOutputStream file;
+        final Writer writer;
+
+        AppendLog(Path path) throws IOException {
+            file = new FileOutputStream(path.toFile(), true);
+            writer = new BufferedWriter(new OutputStreamWriter(file, StandardCharsets.UTF_8));
+        }
+
+        void append(List<String> lines) throws IOException {
+            for (String line : lines) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        }
+
+        void sync() throws IOException {
+            writer.flush();
+            file.getChannel().force(false);
+        }
+
+        void close() throws IOException {
+            writer.close();
+        }
+    }
+
+    /**
+     * Position of {@link #readLevel(int, int)} in a level file
+     */
+    private static class LevelReader {
+        BufferedReader reader; // null until the next read reopens the file
+        long linesRead;
+    }
+
+    /**
+     * @param root             parent directory of all crawl states
+     * @param seed             seed URL, picks the state directory
+     * @param checkpointPages  processed pages between two checkpoints
+     * @param beforeCheckpoint run before the visited URLs are written, e.g. to flush indexed documents
+     */
+    public static FrontierStore open(Path root, String seed, int checkpointPages, Runnable beforeCheckpoint)
+            throws IOException {
+        return new FrontierStore(root.resolve(seedKey(seed)), seed, checkpointPages, beforeCheckpoint);
+    }
+
+    private FrontierStore(Path dir, String seed, int checkpointPages, Runnable beforeCheckpoint) throws IOException {
+        this.dir = dir;
+        this.seed = seed;
+        this.checkpointPages = Math.max(1, checkpointPages);
+        this.beforeCheckpoint = beforeCheckpoint;
+        Files.createDirectories(dir);
+
+        Path state = dir.resolve(STATE_FILE);
+        this.resumed = Files.exists(state);
+        if (resumed) {
+            Properties props = new Properties();
+            try (InputStream input = Files.newInputStream(state)) {
+                props.load(input);
+            }
+            this.level = Integer.parseInt(props.getProperty("level", "0"));
+        }
+        this.visitedLog = new AppendLog(dir.resolve(VISITED_LOG));
+    }
+
+    private static String seedKey(String seed) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(seed.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 8);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * True when an unfinished crawl of the same seed was found
+     */
+    public boolean isResumed() {
+        return resumed;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * Replay the URLs processed before the restart
+     */
+    public void forEachVisited(Consumer<String> action) throws IOException {
+        Path path = dir.resolve(VISITED_LOG);
+        try (Stream<String> lines = Files.lines(path, StandardCharsets.UTF_8)) {
+            lines.filter(line -> !line.isEmpty()).forEach(action);
+        }
+    }
+
+    /**
+     * Replay the URLs still waiting in any level's frontier file
+     */
+    public void forEachQueued(Consumer<String> action) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "level-*.log")) {
+            for (Path file : files) {
+                try (Stream<String> lines = Files.lines(file, StandardCharsets.UTF_8)) {
+                    lines.filter(line -> !line.isEmpty()).forEach(action);
+                }
+            }
+        }
+    }
+
+    /**
+     * Lowest depth that still has a frontier file, or -1 when there is none
+     */
+    public int lowestLevel() throws IOException {
+        int lowest = -1;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "level-*.log")) {
+            for (Path file : files) {
+                int depth = levelOf(file);
+                if (lowest < 0 || depth < lowest) {
+                    lowest = depth;
+                }
+            }
+        }
+        return lowest;
+    }
+
+    public boolean hasLevel(int depth) {
+        return Files.exists(levelPath(depth));
+    }
+
+    /**
+     * Stream the URLs discovered for a depth, in discovery order
+     */
+    public BufferedReader openLevel(int depth) throws IOException {
+        return Files.newBufferedReader(levelPath(depth), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Next lines of a depth's file, up to max, continuing where the previous
+     * call stopped. Only lines written at checkpoints are read, under the same
+     * lock, so a file can be read while links are still appended to it.
+     */
+    public List<String> readLevel(int depth, int max) throws IOException {
+        synchronized (lock) {
+            LevelReader position = levelReaders.computeIfAbsent(depth, d -> new LevelReader());
+            long available = lineCount(depth);
+            List<String> lines = new ArrayList<>();
+            if (position.linesRead >= available) {
+                return lines;
+            }
+            if (position.reader == null) {
+                position.reader = openLevel(depth);
+                for (long skip = 0; skip < position.linesRead; skip++) {
+                    position.reader.readLine();
+                }
+            }
+            while (lines.size() < max && position.linesRead < available) {
+                String line = position.reader.readLine();
+                position.linesRead++;
+                if (line != null && !line.isEmpty()) {
+                    lines.add(line);
+                }
+            }
+            return lines;
+        }
+    }
+
+    /**
+     * Compact a file read with {@link #readLevel(int, int)} once every line
+     * written so far was read, keeping the lines keep matches
+     */
+    public void compactReadLevel(int depth, Predicate<String> keep) throws IOException {
+        synchronized (lock) {
+            LevelReader position = levelReaders.get(depth);
+            if (position == null || position.reader == null || position.linesRead < lineCount(depth)) {
+                return;
+            }
+            position.reader.close();
+            position.reader = null;
+            compactLevel(depth, keep);
+            // The lines kept were handed out already
+            position.linesRead = lineCount(depth);
+        }
+    }
+
+    /**
+     * Lines of a depth's file written at checkpoints so far; the caller holds the lock
+     */
+    private long lineCount(int depth) throws IOException {
+        Long lines = levelLines.get(depth);
+        if (lines == null) {
+            lines = 0L;
+            if (Files.exists(levelPath(depth))) {
+                try (Stream<String> existing = Files.lines(levelPath(depth), StandardCharsets.UTF_8)) {
+                    lines = existing.count();
+                }
+            }
+            levelLines.put(depth, lines);
+        }
+        return lines;
+    }
+
+    /**
+     * Add a discovered link to the frontier of the given depth
+     */
+    public void enqueue(int depth, String url) {
+        boolean full;
+        synchronized (lock) {
+            pendingLinks.computeIfAbsent(depth, d -> new ArrayList<>()).add(url);
+            full = ++pendingLinkCount >= MAX_BUFFERED_LINKS;
+        }
+        if (full) {
+            flushLinks();
+        }
+    }
+
+    /**
+     * Record that a URL needs no more work, checkpointing every checkpointPages URLs
+     */
+    public void markVisited(String url) {
+        boolean due;
+        synchronized (lock) {
+            pendingVisited.add(url);
+            due = pendingVisited.size() >= checkpointPages;
+        }
+        if (due) {
+            checkpoint();
+        }
+    }
+
+    /**
+     * Record the depth being crawled
+     */
+    public void startLevel(int depth) {
+        level = depth;
+        checkpoint();
+    }
+
+    /**
+     * Write buffered links, then visited URLs, then the state file, syncing each.
+     * beforeCheckpoint runs without the buffer lock, so links and visited URLs
+     * can still be recorded while it waits, e.g. for a bulk request.
+     */
+    public void checkpoint() {
+        synchronized (checkpointLock) {
+            // Taken first: everything they refer to was handed on before this point
+            List<String> visited;
+            synchronized (lock) {
+                visited = pendingVisited;
+                pendingVisited = new ArrayList<>();
+            }
+            if (beforeCheckpoint != null) {
+                beforeCheckpoint.run();
+            }
+            synchronized (lock) {
+                try {
+                    // Links of the visited pages were buffered before them, so they are written by now
+                    writeLinks();
+
+                    visitedLog.append(visited);
+                    visitedLog.sync();
+                    pagesCheckpointed += visited.size();
+
+                    writeState();
+                    checkpoints++;
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Failed to checkpoint crawl frontier in " + dir, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the buffered links without a full checkpoint, so that
+     * {@link #readLevel(int, int)} sees them
+     */
+    public void flushLinks() {
+        synchronized (lock) {
+            try {
+                writeLinks();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to write crawl frontier in " + dir, e);
+            }
+        }
+    }
+
+    /**
+     * Append and sync the buffered links; the caller holds the lock
+     */
+    private void writeLinks() throws IOException {
+        for (Map.Entry<Integer, List<String>> entry : pendingLinks.entrySet()) {
+            long lines = lineCount(entry.getKey());
+            AppendLog log = levelLogs.get(entry.getKey());
+            if (log == null) {
+                log = new AppendLog(levelPath(entry.getKey()));
+                levelLogs.put(entry.getKey(), log);
+            }
+            log.append(entry.getValue());
+            log.sync();
+            levelLines.put(entry.getKey(), lines + entry.getValue().size());
+            linksLogged += entry.getValue().size();
+        }
+        pendingLinks.clear();
+        pendingLinkCount = 0;
+    }
+
+    private void writeState() throws IOException {
+        Properties props = new Properties();
+        props.setProperty("seed", seed);
+        props.setProperty("level", String.valueOf(level));
+        Path tmp = dir.resolve(STATE_FILE + ".tmp");
+        try (OutputStream out = Files.newOutputStream(tmp)) {
+            props.store(out, "Crawl frontier state");
+        }
+        Files.move(tmp, dir.resolve(STATE_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Rewrite a finished depth's file with only the URLs that keep matches
+     * (the ones still in flight), without duplicates; drop it when none is left
+     */
+    public void compactLevel(int depth, Predicate<String> keep) throws IOException {
+        synchronized (lock) {
+            Path path = levelPath(depth);
+            if (!Files.exists(path)) {
+                return;
+            }
+            AppendLog open = levelLogs.remove(depth);
+            if (open != null) {
+                open.close();
+            }
+            Set<String> kept = new HashSet<>();
+            long total = 0;
+            Path tmp = dir.resolve(path.getFileName() + ".tmp");
+            try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8);
+                 BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                String url;
+                while ((url = reader.readLine()) != null) {
+                    total++;
+                    if (!url.isEmpty() && keep.test(url) && kept.add(url)) {
+                        writer.write(url);
+                        writer.write('\n');
+                    }
+                }
+            }
+            compactedLines += total - kept.size();
+            levelLines.put(depth, (long) kept.size());
+            if (kept.isEmpty()) {
+                Files.delete(tmp);
+                Files.delete(path);
+            } else {
+                Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+    }
+
+    /**
+     * The crawl completed: remove its state so the next crawl of this seed starts fresh
+     */
+    public void finish() throws IOException {
+        close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    /**
+     * Final checkpoint; the state stays on disk for a later resume
+     */
+    @Override
+    public void close() throws IOException {
+        checkpoint();
+        synchronized (lock) {
+            for (AppendLog log : levelLogs.values()) {
+                log.close();
+            }
+            levelLogs.clear();
+            for (LevelReader position : levelReaders.values()) {
+                if (position.reader != null) {
+                    position.reader.close();
+                    position.reader = null;
+                }
+            }
+            visitedLog.close();
+        }
+    }
+
+    public String report() {
+        synchronized (lock) {
+            return String.format("frontier: %d link(s) logged, %d page(s) checkpointed in %d checkpoint(s), "
+                    + "%d line(s) compacted away, %.1f MB on disk", linksLogged, pagesCheckpointed, checkpoints,
+                    compactedLines, diskBytes() / (1024.0 * 1024.0));
+        }
+    }
+
+    private long diskBytes() {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.mapToLong(file -> file.toFile().length()).sum();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private Path levelPath(int depth) {
+        return dir.resolve("level-" + depth + ".log");
+    }
+
+    private static int levelOf(Path file) {
+        String name = file.getFileName().toString();
+        return Integer.parseInt(name.substring("level-".length(), name.length() - ".log".length()));
+    }
+}
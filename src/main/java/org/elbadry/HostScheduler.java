@@ -0,0 +1,230 @@
+package org.elbadry;
+
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Per-host politeness scheduler.
+ * Every host has its own queue, a minimum delay between two requests and a
+ * maximum number of concurrent connections. Workers always get a task from the
+ * host whose delay expired first, so many hosts can be crawled in parallel
+ * without any single host being hit harder than its limits allow.
+ */
+public class HostScheduler {
+    private final long defaultDelayNanos;
+    private final int maxConnectionsPerHost;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final Condition lowOnTasks = lock.newCondition();
+    private final Map<String, HostQueue> hosts = new HashMap<>();
+    // Hosts that have pending tasks and a free connection slot, earliest slot first
+    private final PriorityQueue<HostQueue> ready =
+            new PriorityQueue<>((a, b) -> Long.compare(a.nextAllowedAt, b.nextAllowedAt));
+    private int pending;
+    // While a feeder adds tasks, take() waits for them instead of returning null
+    private boolean feeding;
+    private int watermark;
+
+    private static class HostQueue {
+        final String host;
+        final ArrayDeque<CrawlTask> tasks = new ArrayDeque<>();
+        long delayNanos;
+        long nextAllowedAt;
+        int active;
+        boolean inReady;
+
+        HostQueue(String host, long delayNanos) {
+            this.host = host;
+            this.delayNanos = delayNanos;
+        }
+    }
+
+    public HostScheduler(long delayMs, int maxConnectionsPerHost) {
+        this.defaultDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMs));
+        this.maxConnectionsPerHost = Math.max(1, maxConnectionsPerHost);
+    }
+
+    /**
+     * Queue a task behind the other tasks of its host
+     */
+    public void add(CrawlTask task) {
+        lock.lock();
+        try {
+            HostQueue queue = hostQueue(hostOf(task.url));
+            queue.tasks.add(task);
+            pending++;
+            markReadyIfPossible(queue);
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Override the delay for one host (e.g. a robots.txt Crawl-delay)
+     */
+    public void setHostDelay(String host, long delayMs) {
+        lock.lock();
+        try {
+            hostQueue(host).delayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMs));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Keep workers waiting in {@link #take()} for the tasks a feeder adds, and
+     * wake the feeder when fewer than watermark tasks are pending
+     */
+    public void startFeeding(int watermark) {
+        lock.lock();
+        try {
+            this.feeding = true;
+            this.watermark = watermark;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * No more tasks will be added: take() returns null once the queue drained
+     */
+    public void stopFeeding() {
+        lock.lock();
+        try {
+            feeding = false;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait until fewer than the watermark tasks are pending, at most timeoutMs
+     *
+     * @return the number of pending tasks
+     */
+    public int awaitLowOnTasks(long timeoutMs) throws InterruptedException {
+        lock.lock();
+        try {
+            long left = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+            while (pending >= watermark && left > 0) {
+                left = lowOnTasks.awaitNanos(left);
+            }
+            return pending;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait for the next host whose delay has expired and take its next task.
+     * The caller must call {@link #release(CrawlTask)} once the request is done.
+     *
+     * @return the next task, or null once no task is pending anymore and no feeder adds any
+     */
+    public CrawlTask take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (true) {
+                if (pending == 0) {
+                    if (!feeding) {
+                        return null;
+                    }
+                    changed.await();
+                    continue;
+                }
+                HostQueue head = ready.peek();
+                if (head == null) {
+                    // Every host with work is at its connection limit
+                    changed.await();
+                    continue;
+                }
+                long wait = head.nextAllowedAt - System.nanoTime();
+                if (wait > 0) {
+                    changed.awaitNanos(wait);
+                    continue;
+                }
+
+                ready.poll();
+                head.inReady = false;
+                CrawlTask task = head.tasks.poll();
+                pending--;
+                if (feeding && pending < watermark) {
+                    lowOnTasks.signal();
+                }
+                head.active++;
+                head.nextAllowedAt = System.nanoTime() + head.delayNanos;
+                markReadyIfPossible(head);
+                if (pending == 0) {
+                    changed.signalAll(); // let idle workers see that the queue drained
+                }
+                return task;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Free the connection slot taken by a task returned from {@link #take()}
+     */
+    public void release(CrawlTask task) {
+        lock.lock();
+        try {
+            HostQueue queue = hosts.get(hostOf(task.url));
+            if (queue != null) {
+                queue.active--;
+                markReadyIfPossible(queue);
+                changed.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int pendingCount() {
+        lock.lock();
+        try {
+            return pending;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int hostCount() {
+        lock.lock();
+        try {
+            return hosts.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private HostQueue hostQueue(String host) {
+        return hosts.computeIfAbsent(host, h -> new HostQueue(h, defaultDelayNanos));
+    }
+
+    private void markReadyIfPossible(HostQueue queue) {
+        if (!queue.inReady && !queue.tasks.isEmpty() && queue.active < maxConnectionsPerHost) {
+            queue.inReady = true;
+            ready.add(queue);
+        }
+    }
+
+    public static String hostOf(String url) {
+        try {
+            String host = URI.create(url).getHost();
+            return host != null ? host.toLowerCase() : "";
+        } catch (IllegalArgumentException e) {
+            return "";
+        }
+    }
+}
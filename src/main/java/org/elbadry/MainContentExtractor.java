@@ -0,0 +1,162 @@
+package org.elbadry;
+
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+import org.jsoup.select.NodeTraversor;
+import org.jsoup.select.NodeVisitor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Keeps the main content of a page and drops navigation, footers, banners
+ * and sidebars. The page is cut into text blocks at block-level tags; a
+ * block is boilerplate when it sits in nav, header, footer or aside, or when
+ * its link density and word count, and those of its neighbours, say so
+ * (the shallow text features of Kohlschuetter et al., "Boilerplate
+ * detection using shallow text features", as used by boilerpipe).
+ * Text is fed in document order, from a DOM walk or from the streaming
+ * extractor.
+ */
+public final class MainContentExtractor {
+    private static final Set<String> BOILERPLATE = Set.of("nav", "header", "footer", "aside");
+    // Below this many words of main content the whole text is kept (home and listing pages)
+    private static final int MIN_MAIN_WORDS = 50;
+
+    private final List<Block> blocks = new ArrayList<>();
+    private Block current = new Block();
+    private boolean inLink;
+    private int boilerplateDepth;
+
+    private static final class Block {
+        final StringBuilder text = new StringBuilder();
+        int words;
+        int linkWords;
+        boolean boilerplate;
+        boolean space;
+    }
+
+    public void append(char c) {
+        if (Character.isWhitespace(c) || c == '\u00a0') {
+            current.space = true;
+            return;
+        }
+        if (current.text.isEmpty() || current.space) {
+            if (!current.text.isEmpty()) {
+                current.text.append(' ');
+            }
+            current.words++;
+            if (inLink) {
+                current.linkWords++;
+            }
+        }
+        current.space = false;
+        current.text.append(c);
+    }
+
+    public void append(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            append(value.charAt(i));
+        }
+    }
+
+    public void setInLink(boolean inLink) {
+        this.inLink = inLink;
+    }
+
+    /**
+     * Opening (or closing) tag of an element; block-level tags end the current block
+     */
+    public void tag(String name, boolean open) {
+        if (BOILERPLATE.contains(name)) {
+            breakBlock();
+            boilerplateDepth = Math.max(0, boilerplateDepth + (open ? 1 : -1));
+        } else if (name.equals("a")) {
+            setInLink(open);
+        } else if (StreamingHtmlExtractor.BLOCKS.contains(name)) {
+            breakBlock();
+        }
+    }
+
+    private void breakBlock() {
+        if (current.words > 0) {
+            current.boilerplate = boilerplateDepth > 0;
+            blocks.add(current);
+            current = new Block();
+        } else {
+            current.space = false;
+        }
+    }
+
+    /**
+     * Text of the content blocks, or null when there is too little of it to
+     * tell content from boilerplate
+     */
+    public String mainText() {
+        breakBlock();
+        StringBuilder main = new StringBuilder();
+        int words = 0;
+        for (int i = 0; i < blocks.size(); i++) {
+            Block block = blocks.get(i);
+            if (!block.boilerplate && isContent(i > 0 ? blocks.get(i - 1) : null, block,
+                    i + 1 < blocks.size() ? blocks.get(i + 1) : null)) {
+                if (!main.isEmpty()) {
+                    main.append(' ');
+                }
+                main.append(block.text);
+                words += block.words;
+            }
+        }
+        return words >= MIN_MAIN_WORDS ? main.toString() : null;
+    }
+
+    /**
+     * boilerpipe's NumWordsRulesClassifier decision tree
+     */
+    private static boolean isContent(Block previous, Block block, Block next) {
+        if (linkDensity(block) > 0.333) {
+            return false;
+        }
+        int previousWords = previous != null ? previous.words : 0;
+        int nextWords = next != null ? next.words : 0;
+        if (previous == null || linkDensity(previous) <= 0.555) {
+            if (block.words <= 16) {
+                return nextWords > 15 || previousWords > 4;
+            }
+            return true;
+        }
+        return block.words > 40 || nextWords > 17;
+    }
+
+    private static double linkDensity(Block block) {
+        return block.words == 0 ? 0 : (double) block.linkWords / block.words;
+    }
+
+    /**
+     * Main content of a parsed page, or null when too little of it is content
+     */
+    public static String of(Document doc) {
+        MainContentExtractor extractor = new MainContentExtractor();
+        NodeTraversor.traverse(new NodeVisitor() {
+            @Override
+            public void head(Node node, int depth) {
+                if (node instanceof TextNode text) {
+                    extractor.append(text.getWholeText());
+                } else if (node instanceof Element element) {
+                    extractor.tag(element.normalName(), true);
+                }
+            }
+
+            @Override
+            public void tail(Node node, int depth) {
+                if (node instanceof Element element) {
+                    extractor.tag(element.normalName(), false);
+                }
+            }
+        }, doc.body());
+        return extractor.mainText();
+    }
+}
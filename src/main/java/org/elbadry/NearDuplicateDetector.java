@@ -0,0 +1,189 @@
+package org.elbadry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Finds pages whose text is nearly the same as a page already kept, before
+ * they are embedded. Each text gets a 64-bit SimHash of its 3-word shingles;
+ * similar texts get fingerprints a few bits apart. Two fingerprints within
+ * maxDistance bits agree on at least one of maxDistance + 1 bit blocks, so
+ * each kept page is filed under every block value and only pages sharing a
+ * block are compared (Manku et al., "Detecting near-duplicates for web crawling").
+ */
+public class NearDuplicateDetector {
+    private static final int SHINGLE_WORDS = 3;
+    // Fewer shingles than this give unstable fingerprints; such pages are never matched
+    private static final int MIN_SHINGLES = 16;
+    // Duplicate URLs remembered per canonical page for the report written to its document
+    private static final int MAX_RECORDED_DUPLICATES = 100;
+
+    private final int maxDistance;
+    private final int[] blockShifts;
+    private final long[] blockMasks;
+    private final List<Map<Long, List<Kept>>> blocks;
+
+    private final Map<String, List<String>> clusters = new LinkedHashMap<>();
+    private long kept;
+    private long duplicates;
+
+    private record Kept(long simhash, String url) {
+    }
+
+    /**
+     * Page found to be a near-duplicate of {@code canonicalUrl}
+     */
+    public record Match(String canonicalUrl, int distance) {
+    }
+
+    /**
+     * @param maxDistance highest number of differing fingerprint bits still counted as a duplicate
+     */
+    public NearDuplicateDetector(int maxDistance) {
+        this.maxDistance = Math.min(Math.max(0, maxDistance), 15);
+        int blockCount = this.maxDistance + 1;
+        this.blockShifts = new int[blockCount];
+        this.blockMasks = new long[blockCount];
+        this.blocks = new ArrayList<>(blockCount);
+        int width = 64 / blockCount;
+        for (int b = 0; b < blockCount; b++) {
+            int bits = b == blockCount - 1 ? 64 - width * b : width;
+            blockShifts[b] = width * b;
+            blockMasks[b] = bits == 64 ? -1L : (1L << bits) - 1;
+            blocks.add(new HashMap<>());
+        }
+    }
+
+    /**
+     * Compare a page with the pages kept so far. A page that matches none is
+     * kept itself and null is returned.
+     */
+    public Match check(String url, String text) {
+        long simhash;
+        try {
+            simhash = simhash(text);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        synchronized (this) {
+            Match match = nearest(simhash);
+            if (match != null) {
+                duplicates++;
+                List<String> cluster = clusters.computeIfAbsent(match.canonicalUrl(), k -> new ArrayList<>());
+                if (cluster.size() < MAX_RECORDED_DUPLICATES) {
+                    cluster.add(url);
+                }
+                return match;
+            }
+            Kept page = new Kept(simhash, url);
+            for (int b = 0; b < blockMasks.length; b++) {
+                blocks.get(b).computeIfAbsent(block(simhash, b), k -> new ArrayList<>(1)).add(page);
+            }
+            kept++;
+            return null;
+        }
+    }
+
+    private Match nearest(long simhash) {
+        Match best = null;
+        for (int b = 0; b < blockMasks.length; b++) {
+            List<Kept> candidates = blocks.get(b).get(block(simhash, b));
+            if (candidates == null) {
+                continue;
+            }
+            for (Kept candidate : candidates) {
+                int distance = Long.bitCount(candidate.simhash() ^ simhash);
+                if (distance <= maxDistance && (best == null || distance < best.distance())) {
+                    best = new Match(candidate.url(), distance);
+                }
+            }
+        }
+        return best;
+    }
+
+    private long block(long simhash, int b) {
+        return (simhash >>> blockShifts[b]) & blockMasks[b];
+    }
+
+    /**
+     * SimHash of the text's lowercase word shingles, each weighted 1
+     *
+     * @throws IllegalArgumentException when the text is too short to fingerprint
+     */
+    static long simhash(String text) {
+        int[] votes = new int[64];
+        long[] window = new long[SHINGLE_WORDS];
+        int words = 0;
+        int shingles = 0;
+        int i = 0;
+        int length = text.length();
+        while (i < length) {
+            while (i < length && !Character.isLetterOrDigit(text.charAt(i))) {
+                i++;
+            }
+            if (i == length) {
+                break;
+            }
+            long hash = 0xcbf29ce484222325L;
+            while (i < length && Character.isLetterOrDigit(text.charAt(i))) {
+                hash ^= Character.toLowerCase(text.charAt(i++));
+                hash *= 0x100000001b3L;
+            }
+            window[words++ % SHINGLE_WORDS] = hash;
+            if (words < SHINGLE_WORDS) {
+                continue;
+            }
+            long shingle = 0;
+            for (int w = 0; w < SHINGLE_WORDS; w++) {
+                // Rotate by position in the shingle so word order matters
+                shingle ^= Long.rotateLeft(window[(words - SHINGLE_WORDS + w) % SHINGLE_WORDS], 21 * w);
+            }
+            shingle = mix(shingle);
+            for (int bit = 0; bit < 64; bit++) {
+                votes[bit] += ((shingle >>> bit) & 1) != 0 ? 1 : -1;
+            }
+            shingles++;
+        }
+        if (shingles < MIN_SHINGLES) {
+            throw new IllegalArgumentException("Too few words to fingerprint: " + words);
+        }
+        long simhash = 0;
+        for (int bit = 0; bit < 64; bit++) {
+            if (votes[bit] > 0) {
+                simhash |= 1L << bit;
+            }
+        }
+        return simhash;
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Each canonical page with the duplicate URLs mapped to it (at most
+     * MAX_RECORDED_DUPLICATES of them)
+     */
+    public synchronized void forEachCluster(BiConsumer<String, List<String>> action) {
+        clusters.forEach((canonical, members) -> action.accept(canonical, List.copyOf(members)));
+    }
+
+    /**
+     * @param textsSaved texts the skipped pages would have sent to the embedder
+     * @param batchSize  texts per embed call
+     */
+    public synchronized String report(long textsSaved, int batchSize) {
+        return String.format("near-duplicates: %d page(s) kept, %d skipped in %d cluster(s), "
+                        + "%d text(s) not embedded (~%d embed call(s) saved)", kept, duplicates, clusters.size(),
+                textsSaved, (textsSaved + batchSize - 1) / batchSize);
+    }
+}
@@ -0,0 +1,434 @@
+package org.elbadry;
+
+import org.jsoup.Jsoup;
+import org.jsoup.helper.HttpConnection;
+import org.jsoup.nodes.Document;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLContextSpi;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLServerSocketFactory;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.Charset;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Fetches pages over one shared HTTP client for the whole crawl. Connections
+ * to a host are kept alive and reused across pages, HTTP/2 requests to the
+ * same host share one connection, and gzip or deflate bodies are decoded as
+ * they are read. TLS handshakes are counted through the client's SSLContext
+ * (one SSLEngine per connection opened) to show how many pages reused one.
+ * A body still being read when the fetch runs out of time is closed, so a
+ * server trickling its body cannot hold a crawl worker indefinitely.
+ */
+public class PageFetcher {
+    private static final String ACCEPT = "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8";
+    // Time allowed for fetching a whole file, which can be far larger than a page
+    private static final Duration FILE_TIMEOUT = Duration.ofMinutes(1);
+
+    private final HttpClient client;
+    private final Duration timeout;
+    private final int maxBodyBytes;
+
+    private final AtomicLong handshakes = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong http2Responses = new AtomicLong();
+    private final AtomicLong compressedResponses = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong bodyTimeouts = new AtomicLong();
+    private final ScheduledExecutorService deadlines;
+    // Time to the response headers and to the end of the body, in 1 ms buckets up to the timeout
+    private final AtomicLongArray firstByteMs;
+    private final AtomicLongArray completeMs;
+
+    /**
+     * @param http2        offer HTTP/2, falling back to HTTP/1.1 for servers without it
+     * @param timeoutMs    connect timeout, and time allowed for the whole fetch, body included
+     * @param maxBodyBytes decoded body bytes read at most; the rest of the page is ignored
+     */
+    public PageFetcher(boolean http2, int timeoutMs, int maxBodyBytes) {
+        this.timeout = Duration.ofMillis(timeoutMs);
+        this.maxBodyBytes = maxBodyBytes;
+        this.firstByteMs = new AtomicLongArray(timeoutMs + 2);
+        this.completeMs = new AtomicLongArray(timeoutMs + 2);
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(http2 ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(timeout);
+        try {
+            builder.sslContext(new CountingSslContext(SSLContext.getDefault(), handshakes));
+        } catch (NoSuchAlgorithmException e) {
+            System.err.println("TLS handshakes will not be counted: " + e.getMessage());
+        }
+        this.client = builder.build();
+        this.deadlines = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "fetch-deadline");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Fetch a page. The body is left unread in the returned response.
+     *
+     * @param headers extra request headers, such as conditional request validators
+     * @throws IOException for network errors, HTTP errors (400 and up) and bodies that are not HTML or XML
+     */
+    public Response fetch(String url, Map<String, String> headers) throws IOException {
+        return send(url, headers, true, maxBodyBytes, timeout);
+    }
+
+    /**
+     * Fetch a file such as robots.txt or a sitemap, whatever its status and
+     * content type, within a minute rather than the page timeout
+     *
+     * @param maxBytes decoded body bytes read at most, instead of the page limit
+     * @throws IOException for network errors only
+     */
+    public Response fetchFile(String url, long maxBytes) throws IOException {
+        return send(url, Map.of(), false, maxBytes, timeout.compareTo(FILE_TIMEOUT) > 0 ? timeout : FILE_TIMEOUT);
+    }
+
+    private Response send(String url, Map<String, String> headers, boolean page, long maxBytes, Duration deadline)
+            throws IOException {
+        long start = System.nanoTime();
+        requests.incrementAndGet();
+        HttpRequest.Builder request = HttpRequest.newBuilder()
+                .timeout(timeout)
+                .header("User-Agent", HttpConnection.DEFAULT_UA)
+                .header("Accept", ACCEPT)
+                .header("Accept-Encoding", "gzip, deflate");
+        headers.forEach(request::header);
+        HttpResponse<InputStream> response;
+        try {
+            response = client.send(request.uri(URI.create(url)).build(), HttpResponse.BodyHandlers.ofInputStream());
+        } catch (IllegalArgumentException e) {
+            failures.incrementAndGet();
+            throw new IOException("Invalid URL: " + url, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failures.incrementAndGet();
+            throw new IOException("Interrupted fetching " + url, e);
+        } catch (IOException e) {
+            failures.incrementAndGet();
+            throw e;
+        }
+        record(firstByteMs, start);
+        if (response.version() == HttpClient.Version.HTTP_2) {
+            http2Responses.incrementAndGet();
+        }
+
+        int status = response.statusCode();
+        String contentType = response.headers().firstValue("Content-Type").orElse(null);
+        if (page && (status >= 400 || (contentType != null && !isMarkup(contentType)))) {
+            response.body().close();
+            failures.incrementAndGet();
+            throw new IOException(status >= 400 ? "HTTP error " + status
+                    : "Unhandled content type " + contentType);
+        }
+        // The deadline runs from here on: reading the gzip header may block already
+        Response result = new Response(this, response, start, maxBytes, deadline);
+        // 304 and other bodiless answers may still name an encoding
+        String encoding = status < 300 ? response.headers().firstValue("Content-Encoding").orElse("").trim() : "";
+        try {
+            if (encoding.equalsIgnoreCase("gzip")) {
+                compressedResponses.incrementAndGet();
+                result.body = new GZIPInputStream(result.body, 8192);
+            } else if (encoding.equalsIgnoreCase("deflate")) {
+                compressedResponses.incrementAndGet();
+                result.body = new InflaterInputStream(result.body);
+            }
+        } catch (IOException e) {
+            result.bodyStream().close();
+            throw result.timeoutOr(e);
+        }
+        return result;
+    }
+
+    private static boolean isMarkup(String contentType) {
+        String type = contentType.toLowerCase();
+        return type.startsWith("text/") || type.startsWith("application/xhtml+xml")
+                || type.startsWith("application/xml") || type.matches("application/[\\w.-]+\\+xml.*");
+    }
+
+    private void record(AtomicLongArray histogram, long startNanos) {
+        long ms = (System.nanoTime() - startNanos) / 1_000_000;
+        histogram.incrementAndGet((int) Math.min(ms, histogram.length() - 1));
+    }
+
+    private static String percentiles(AtomicLongArray histogram) {
+        long[] counts = new long[histogram.length()];
+        long total = 0;
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = histogram.get(i);
+            total += counts[i];
+        }
+        return String.format("p50=%d p95=%d p99=%d ms", percentile(counts, total, 0.50),
+                percentile(counts, total, 0.95), percentile(counts, total, 0.99));
+    }
+
+    private static int percentile(long[] counts, long total, double p) {
+        long rank = Math.max(1, (long) Math.ceil(p * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    public String report() {
+        long sent = requests.get();
+        return String.format("http: %d request(s), %d failed (%d body timeout(s)), %d TLS handshake(s) "
+                        + "(%.2f per request), %d over HTTP/2, %d compressed; first byte %s, complete %s",
+                sent, failures.get(), bodyTimeouts.get(), handshakes.get(),
+                sent == 0 ? 0.0 : (double) handshakes.get() / sent,
+                http2Responses.get(), compressedResponses.get(), percentiles(firstByteMs), percentiles(completeMs));
+    }
+
+    /**
+     * Status, headers and body of a fetched page, read like jsoup's
+     * Connection.Response: either streamed with bodyStream() or buffered with
+     * bufferUp() and parsed later
+     */
+    public static final class Response {
+        private final PageFetcher fetcher;
+        private final HttpResponse<InputStream> response;
+        private InputStream body;
+        private final long startNanos;
+        private final long maxBytes;
+        private final Duration timeout;
+        private final AtomicBoolean ended = new AtomicBoolean();
+        private final ScheduledFuture<?> deadline;
+        private volatile boolean timedOut;
+        private byte[] buffered;
+
+        private Response(PageFetcher fetcher, HttpResponse<InputStream> response, long startNanos, long maxBytes,
+                         Duration timeout) {
+            this.fetcher = fetcher;
+            this.response = response;
+            this.body = response.body();
+            this.startNanos = startNanos;
+            this.maxBytes = maxBytes;
+            this.timeout = timeout;
+            long left = startNanos + timeout.toNanos() - System.nanoTime();
+            this.deadline = fetcher.deadlines.schedule(this::expire, Math.max(0, left), TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Out of time: closing the raw stream fails a read blocked on a slow server
+         */
+        private void expire() {
+            if (ended.compareAndSet(false, true)) {
+                timedOut = true;
+                fetcher.bodyTimeouts.incrementAndGet();
+                fetcher.failures.incrementAndGet();
+                try {
+                    response.body().close();
+                } catch (IOException e) {
+                    // The reader fails either way
+                }
+            }
+        }
+
+        private IOException timeoutOr(IOException e) {
+            return timedOut ? new IOException("Body of " + url() + " not read within "
+                    + timeout.toMillis() + " ms", e) : e;
+        }
+
+        public int statusCode() {
+            return response.statusCode();
+        }
+
+        /**
+         * URL the page was fetched from, after redirects
+         */
+        public String url() {
+            return response.uri().toString();
+        }
+
+        public String header(String name) {
+            return response.headers().firstValue(name).orElse(null);
+        }
+
+        /**
+         * Charset named by the Content-Type header, or null
+         */
+        public String charset() {
+            String contentType = header("Content-Type");
+            if (contentType == null) {
+                return null;
+            }
+            for (String parameter : contentType.split(";")) {
+                String[] pair = parameter.trim().split("=", 2);
+                if (pair.length == 2 && pair[0].trim().equalsIgnoreCase("charset")) {
+                    String name = pair[1].trim().replace("\"", "").replace("'", "");
+                    return Charset.isSupported(name) ? name : null;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Decoded body, cut off after the fetch's byte limit; closing it ends the fetch
+         */
+        public InputStream bodyStream() {
+            return new InputStream() {
+                private long remaining = maxBytes;
+
+                @Override
+                public int read() throws IOException {
+                    if (remaining <= 0) {
+                        return -1;
+                    }
+                    int b;
+                    try {
+                        b = body.read();
+                    } catch (IOException e) {
+                        throw timeoutOr(e);
+                    }
+                    if (b >= 0) {
+                        remaining--;
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] bytes, int offset, int length) throws IOException {
+                    if (remaining <= 0) {
+                        return -1;
+                    }
+                    int read;
+                    try {
+                        read = body.read(bytes, offset, (int) Math.min(length, remaining));
+                    } catch (IOException e) {
+                        throw timeoutOr(e);
+                    }
+                    if (read > 0) {
+                        remaining -= read;
+                    }
+                    return read;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    if (ended.compareAndSet(false, true)) {
+                        deadline.cancel(false);
+                        fetcher.record(fetcher.completeMs, startNanos);
+                    }
+                    body.close();
+                }
+            };
+        }
+
+        /**
+         * Read the whole body now so it can be parsed on another thread
+         */
+        public void bufferUp() throws IOException {
+            if (buffered == null) {
+                try (InputStream stream = bodyStream()) {
+                    buffered = stream.readAllBytes();
+                }
+            }
+        }
+
+        /**
+         * DOM of the buffered body, in the header's charset or the one the page declares
+         */
+        public Document parse() throws IOException {
+            bufferUp();
+            return Jsoup.parse(new ByteArrayInputStream(buffered), charset(), url());
+        }
+    }
+
+    /**
+     * SSLContext that hands out the default context's engines and counts them
+     */
+    private static final class CountingSslContext extends SSLContext {
+        CountingSslContext(SSLContext delegate, AtomicLong engines) {
+            super(new CountingSpi(delegate, engines), delegate.getProvider(), delegate.getProtocol());
+        }
+    }
+
+    private static final class CountingSpi extends SSLContextSpi {
+        private final SSLContext delegate;
+        private final AtomicLong engines;
+
+        CountingSpi(SSLContext delegate, AtomicLong engines) {
+            this.delegate = delegate;
+            this.engines = engines;
+        }
+
+        @Override
+        protected void engineInit(KeyManager[] keyManagers, TrustManager[] trustManagers, SecureRandom random) {
+            // The default context is initialized already
+        }
+
+        @Override
+        protected SSLSocketFactory engineGetSocketFactory() {
+            return delegate.getSocketFactory();
+        }
+
+        @Override
+        protected SSLServerSocketFactory engineGetServerSocketFactory() {
+            return delegate.getServerSocketFactory();
+        }
+
+        @Override
+        protected SSLEngine engineCreateSSLEngine() {
+            engines.incrementAndGet();
+            return delegate.createSSLEngine();
+        }
+
+        @Override
+        protected SSLEngine engineCreateSSLEngine(String host, int port) {
+            engines.incrementAndGet();
+            return delegate.createSSLEngine(host, port);
+        }
+
+        @Override
+        protected SSLSessionContext engineGetServerSessionContext() {
+            return delegate.getServerSessionContext();
+        }
+
+        @Override
+        protected SSLSessionContext engineGetClientSessionContext() {
+            return delegate.getClientSessionContext();
+        }
+
+        @Override
+        protected SSLParameters engineGetDefaultSSLParameters() {
+            return delegate.getDefaultSSLParameters();
+        }
+
+        @Override
+        protected SSLParameters engineGetSupportedSSLParameters() {
+            return delegate.getSupportedSSLParameters();
+        }
+    }
+}
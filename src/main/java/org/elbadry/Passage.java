@@ -0,0 +1,24 @@
+package org.elbadry;
+
+import org.embeding.Embedding;
+
+/**
+ * One embedded chunk of a page, stored as a nested document of its {@link SiteData}
+ */
+public class Passage {
+    String text;
+    Embedding embedding;
+
+    public Passage(String text, Embedding embedding) {
+        this.text = text;
+        this.embedding = embedding;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public Embedding getEmbedding() {
+        return embedding;
+    }
+}
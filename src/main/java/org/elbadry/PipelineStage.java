@@ -0,0 +1,119 @@
+package org.elbadry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * One stage of the crawl pipeline: a bounded input queue drained by a fixed
+ * number of virtual-thread workers. {@link #submit(Object)} blocks while the
+ * queue is full, which pushes back on the stage feeding it.
+ */
+public class PipelineStage<T> {
+    private final BlockingQueue<T> queue;
+    private final Consumer<T> handler;
+    private final int parallelism;
+    private final String name;
+    private final StageMetrics metrics;
+    private BiConsumer<T, RuntimeException> onFailure = (item, e) -> {
+    };
+    private final List<Thread> workers = new ArrayList<>();
+    private final Object idleLock = new Object();
+    private int outstanding; // submitted but not yet handled, guarded by idleLock
+    private volatile boolean closed;
+
+    public PipelineStage(String name, int parallelism, int capacity, Consumer<T> handler) {
+        this.name = name;
+        this.parallelism = Math.max(1, parallelism);
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        this.handler = handler;
+        this.metrics = new StageMetrics(name, this.parallelism, queue::size);
+    }
+
+    /**
+     * Called with each item the handler threw on, after the error is logged
+     */
+    public PipelineStage<T> onFailure(BiConsumer<T, RuntimeException> onFailure) {
+        this.onFailure = onFailure;
+        return this;
+    }
+
+    public PipelineStage<T> start() {
+        for (int i = 0; i < parallelism; i++) {
+            workers.add(Thread.ofVirtual().name(name + "-", i).start(this::runWorker));
+        }
+        return this;
+    }
+
+    public void submit(T item) throws InterruptedException {
+        synchronized (idleLock) {
+            outstanding++;
+        }
+        try {
+            queue.put(item);
+        } catch (InterruptedException e) {
+            finished();
+            throw e;
+        }
+    }
+
+    /**
+     * Block until every submitted item has been handled
+     */
+    public void awaitIdle() throws InterruptedException {
+        synchronized (idleLock) {
+            while (outstanding > 0) {
+                idleLock.wait();
+            }
+        }
+    }
+
+    /**
+     * Handle everything still queued, then stop the workers
+     */
+    public void close() throws InterruptedException {
+        closed = true;
+        for (Thread worker : workers) {
+            worker.join();
+        }
+    }
+
+    public StageMetrics getMetrics() {
+        return metrics;
+    }
+
+    private void runWorker() {
+        try {
+            while (!closed || !queue.isEmpty()) {
+                T item = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (item == null) {
+                    continue;
+                }
+                long start = System.nanoTime();
+                try {
+                    handler.accept(item);
+                } catch (RuntimeException e) {
+                    System.err.println("Error in " + name + " stage: " + e.getMessage());
+                    onFailure.accept(item, e);
+                } finally {
+                    metrics.record(start);
+                    finished();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void finished() {
+        synchronized (idleLock) {
+            if (--outstanding == 0) {
+                idleLock.notifyAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package org.elbadry;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Best-first crawl order over the on-disk frontier, after Mercator's front
+ * queues (Heydon and Najork, "Mercator: A scalable, extensible web
+ * crawler"). Each URL is scored when it is queued and appended to one of
+ * BANDS FIFO files by score, kept by the {@link FrontierStore}; batches are
+ * taken from the best non-empty band, and the {@link HostScheduler} then
+ * acts as the per-host back queues. Only the band readers and an in-link
+ * count-min sketch live in memory, however many URLs are queued.
+ * <p>
+ * In-links are counted for every link found, known URLs included; a URL is
+ * queued again, in a better band, each time its count doubles, and the
+ * copies are skipped once one of them was taken. Band lines are
+ * "depth url", as the depth of a URL is not implied by its band.
+ */
+public class PriorityFrontier {
+    static final int BANDS = 32;
+    // Score that lands in band 0; every half point below it is one band further
+    private static final double TOP_SCORE = 4.0;
+    private static final int BANDS_PER_POINT = 2;
+    private static final int SKETCH_ROWS = 4;
+    private static final int SKETCH_WIDTH = 1 << 20;
+
+    private final FrontierStore store;
+    private final UrlScorer scorer;
+    // Queued URLs already taken, so the copies queued for more in-links are skipped
+    private final UrlSeenSet taken;
+    private final int[][] sketch = new int[SKETCH_ROWS][SKETCH_WIDTH];
+    private final ConcurrentHashMap<String, AtomicInteger> hostQueued = new ConcurrentHashMap<>();
+
+    private long linksCounted;
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong requeued = new AtomicLong();
+    // Only touched by the thread taking batches
+    private long takenCount;
+    private long copiesSkipped;
+    private final long[] takenPerBand = new long[BANDS];
+
+    public PriorityFrontier(FrontierStore store, UrlScorer scorer, UrlSeenSet taken) {
+        this.store = store;
+        this.scorer = scorer;
+        this.taken = taken;
+    }
+
+    /**
+     * Count a link to url and queue it when it is new, or again when its
+     * in-link count reached a power of two
+     *
+     * @param isNew        first time the URL is seen
+     * @param lastModified sitemap lastmod in epoch ms, 0 when unknown
+     */
+    public void offer(String url, int depth, long lastModified, boolean isNew) {
+        int inLinks = countLink(url);
+        boolean promoted = !isNew && Integer.bitCount(inLinks) == 1 && !taken.contains(url);
+        if (!isNew && !promoted) {
+            return;
+        }
+        AtomicInteger perHost = hostQueued.computeIfAbsent(HostScheduler.hostOf(url), h -> new AtomicInteger());
+        int hostCount = isNew ? perHost.getAndIncrement() : perHost.get();
+        double score = scorer.score(new UrlScorer.Candidate(url, depth, inLinks, lastModified, hostCount));
+        store.enqueue(bandOf(score), depth + " " + url);
+        (isNew ? queued : requeued).incrementAndGet();
+    }
+
+    static int bandOf(double score) {
+        double band = Math.round((TOP_SCORE - score) * BANDS_PER_POINT);
+        return (int) Math.max(0, Math.min(BANDS - 1, band));
+    }
+
+    /**
+     * Count-min sketch with conservative update: only the smallest counters
+     * are raised, which keeps the estimate close for rarely linked URLs
+     */
+    private synchronized int countLink(String url) {
+        linksCounted++;
+        long hash = UrlSeenSet.fingerprint(url);
+        int[] slots = new int[SKETCH_ROWS];
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < SKETCH_ROWS; row++) {
+            // Double hashing over the 64-bit fingerprint gives the row hashes
+            long h = (hash >>> 32) + row * (hash & 0xffffffffL);
+            slots[row] = (int) ((h ^ (h >>> 29)) & (SKETCH_WIDTH - 1));
+            estimate = Math.min(estimate, sketch[row][slots[row]]);
+        }
+        int count = estimate == Integer.MAX_VALUE ? 1 : estimate + 1;
+        for (int row = 0; row < SKETCH_ROWS; row++) {
+            if (sketch[row][slots[row]] < count) {
+                sketch[row][slots[row]] = count;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Take up to max tasks from the best bands first. Links still buffered in
+     * the store are written out first, so links found since the last call
+     * compete with the ones queued before them.
+     *
+     * @param admit filter for the tasks taken; rejected ones are dropped
+     * @return an empty list once nothing is queued
+     */
+    public List<CrawlTask> next(int max, Predicate<CrawlTask> admit) throws IOException {
+        store.flushLinks();
+        List<CrawlTask> batch = new ArrayList<>();
+        for (int band = 0; band < BANDS && batch.size() < max; band++) {
+            List<String> lines;
+            while (batch.size() < max && !(lines = store.readLevel(band, max - batch.size())).isEmpty()) {
+                addTasks(band, lines, batch, admit);
+            }
+        }
+        return batch;
+    }
+
+    private void addTasks(int band, List<String> lines, List<CrawlTask> batch, Predicate<CrawlTask> admit) {
+        for (String line : lines) {
+            int space = line.indexOf(' ');
+            if (space < 0) {
+                continue;
+            }
+            String url = line.substring(space + 1);
+            if (!taken.add(url)) {
+                copiesSkipped++;
+                continue;
+            }
+            CrawlTask task = new CrawlTask(url, Integer.parseInt(line.substring(0, space)));
+            if (admit.test(task)) {
+                batch.add(task);
+                takenCount++;
+                takenPerBand[band]++;
+            }
+        }
+    }
+
+    /**
+     * Shrink the files of bands read to the end down to their URLs still in
+     * flight, which a resume has to fetch again
+     */
+    public void compact(Predicate<String> inFlight) throws IOException {
+        for (int band = 0; band < BANDS; band++) {
+            store.compactReadLevel(band, line -> inFlight.test(urlOf(line)));
+        }
+    }
+
+    /**
+     * URL of a frontier line, with or without the depth in front
+     */
+    static String urlOf(String line) {
+        int space = line.indexOf(' ');
+        return space < 0 ? line : line.substring(space + 1);
+    }
+
+    public synchronized String report() {
+        StringBuilder bands = new StringBuilder();
+        for (int band = 0; band < BANDS; band++) {
+            if (takenPerBand[band] > 0) {
+                bands.append(bands.isEmpty() ? "" : " ").append(band).append(':').append(takenPerBand[band]);
+            }
+        }
+        // Count-min bound: overestimate <= e * links / width with probability 1 - e^-rows
+        return String.format("priority frontier: %d queued, %d re-queued for in-links, %d taken, %d copies skipped, "
+                        + "taken per band [%s], in-link estimates within +%.1f (%d links counted)",
+                queued.get(), requeued.get(), takenCount, copiesSkipped, bands, Math.E * linksCounted / SKETCH_WIDTH,
+                linksCounted);
+    }
+}
@@ -0,0 +1,89 @@
+package org.elbadry;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Picks when a page is checked again from how often it changed so far. The
+ * change rate is estimated from n checks of which X found a change with
+ * Cho and Garcia-Molina's estimator, rate = -ln((n - X + 0.5) / (n + 0.5)) / I
+ * for a mean check interval I, and the page is revisited after 1 / rate. A
+ * page that has not changed yet has its interval doubled each check.
+ * Intervals stay between the configured minimum and maximum.
+ */
+public class RevisitPolicy {
+    private final long minIntervalMs;
+    private final long initialIntervalMs;
+    private final long maxIntervalMs;
+
+    private final AtomicLong newPages = new AtomicLong();
+    private final AtomicLong notDue = new AtomicLong();
+    private final AtomicLong notModified = new AtomicLong();
+    private final AtomicLong unchanged = new AtomicLong();
+    private final AtomicLong changed = new AtomicLong();
+
+    public RevisitPolicy(long minIntervalMs, long initialIntervalMs, long maxIntervalMs) {
+        this.minIntervalMs = Math.max(1, minIntervalMs);
+        this.maxIntervalMs = Math.max(this.minIntervalMs, maxIntervalMs);
+        this.initialIntervalMs = clamp(initialIntervalMs);
+    }
+
+    /**
+     * State of a page fetched for the first time
+     */
+    public FetchState first(String etag, String lastModified, String contentHash, long now) {
+        newPages.incrementAndGet();
+        return new FetchState(etag, lastModified, contentHash, now, now, initialIntervalMs,
+                now + initialIntervalMs, 0, 0, 0);
+    }
+
+    /**
+     * State after checking a known page again
+     *
+     * @param etag         validators of the new response; the previous ones are kept when null (304)
+     * @param contentHash  hash of the new text, the previous one when the server answered 304
+     */
+    public FetchState next(FetchState previous, String etag, String lastModified, String contentHash, long now) {
+        boolean hasChanged = !contentHash.equals(previous.contentHash());
+        int checks = previous.checks() + 1;
+        int changes = previous.changes() + (hasChanged ? 1 : 0);
+        // fetchedAt is 0 for documents indexed before fetch states were stored
+        long elapsed = previous.fetchedAt() > 0 ? Math.max(0, now - previous.fetchedAt()) : 0;
+        long observedMs = previous.observedMs() + elapsed;
+
+        long interval;
+        if (changes == 0) {
+            interval = clamp(previous.intervalMs() * 2);
+        } else {
+            double meanInterval = Math.max(1.0, (double) observedMs / checks);
+            double rate = -Math.log((checks - changes + 0.5) / (checks + 0.5)) / meanInterval;
+            interval = clamp((long) (1 / rate));
+        }
+        return new FetchState(etag != null ? etag : previous.etag(),
+                lastModified != null ? lastModified : previous.lastModified(), contentHash, now,
+                hasChanged ? now : previous.changedAt(), interval, now + interval, checks, changes, observedMs);
+    }
+
+    private long clamp(long interval) {
+        return Math.min(maxIntervalMs, Math.max(minIntervalMs, interval));
+    }
+
+    public void recordNotDue() {
+        notDue.incrementAndGet();
+    }
+
+    public void recordNotModified() {
+        notModified.incrementAndGet();
+    }
+
+    /**
+     * A page that was fetched in full, compared by its text hash
+     */
+    public void recordCompared(boolean hasChanged) {
+        (hasChanged ? changed : unchanged).incrementAndGet();
+    }
+
+    public String report() {
+        return String.format("recrawl: %d new, %d changed, %d unchanged text, %d not modified (304), %d not due",
+                newPages.get(), changed.get(), unchanged.get(), notModified.get(), notDue.get());
+    }
+}
@@ -0,0 +1,155 @@
+package org.elbadry;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * robots.txt rules per origin (scheme, host and port), fetched once and
+ * kept for a while. Workers asking for an origin being fetched wait for
+ * that fetch instead of starting their own. As RFC 9309 asks, a missing
+ * robots.txt (4xx) allows everything, and an unreachable one (5xx or a
+ * network error) disallows everything; that answer is only kept for a few
+ * minutes before robots.txt is fetched again.
+ */
+public class RobotsCache {
+    private static final long UNREACHABLE_TTL_MS = 5 * 60_000;
+    private static final long RETRY_DELAY_MS = 1000;
+    // RFC 9309 asks crawlers to parse at least the first 500 KiB
+    private static final long MAX_ROBOTS_BYTES = 500 * 1024;
+
+    private final PageFetcher fetcher;
+    private final String agent;
+    private final long ttlMs;
+    // Called once for every robots.txt fetched, with its origin
+    private final BiConsumer<String, RobotsRules> onFetched;
+    private final ConcurrentHashMap<String, CompletableFuture<Entry>> origins = new ConcurrentHashMap<>();
+
+    private final AtomicLong found = new AtomicLong();
+    private final AtomicLong missing = new AtomicLong();
+    private final AtomicLong unreachable = new AtomicLong();
+    private final AtomicLong disallowed = new AtomicLong();
+
+    private record Entry(RobotsRules rules, long expiresAt) {
+    }
+
+    /**
+     * @param agent product token matched against User-agent lines, {@code *} for the rules of every crawler
+     */
+    public RobotsCache(PageFetcher fetcher, String agent, long ttlMs, BiConsumer<String, RobotsRules> onFetched) {
+        this.fetcher = fetcher;
+        this.agent = agent;
+        this.ttlMs = ttlMs;
+        this.onFetched = onFetched;
+    }
+
+    /**
+     * Whether robots.txt lets the crawler fetch this URL; fetches the rules
+     * of its origin first when they are not cached
+     */
+    public boolean isAllowed(String url) {
+        URI uri;
+        try {
+            uri = URI.create(url);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        if (uri.getScheme() == null || uri.getHost() == null) {
+            return false;
+        }
+        String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+        if (uri.getRawQuery() != null) {
+            path += "?" + uri.getRawQuery();
+        }
+        boolean allowed = rules(originOf(uri)).isAllowed(path);
+        if (!allowed) {
+            disallowed.incrementAndGet();
+        }
+        return allowed;
+    }
+
+    public RobotsRules rules(String origin) {
+        while (true) {
+            CompletableFuture<Entry> cached = origins.get(origin);
+            if (cached != null) {
+                Entry entry = cached.join();
+                if (entry.expiresAt() > System.currentTimeMillis()) {
+                    return entry.rules();
+                }
+                // Expired: the first worker to replace the entry fetches it again
+                CompletableFuture<Entry> refreshed = new CompletableFuture<>();
+                if (origins.replace(origin, cached, refreshed)) {
+                    return load(origin, refreshed);
+                }
+                continue;
+            }
+            CompletableFuture<Entry> created = new CompletableFuture<>();
+            if (origins.putIfAbsent(origin, created) == null) {
+                return load(origin, created);
+            }
+        }
+    }
+
+    private RobotsRules load(String origin, CompletableFuture<Entry> future) {
+        RobotsRules rules = fetch(origin);
+        if (rules == null) {
+            // Once more before the site is given up on for a while
+            try {
+                Thread.sleep(RETRY_DELAY_MS);
+                rules = fetch(origin);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        long ttl = ttlMs;
+        if (rules == null) {
+            unreachable.incrementAndGet();
+            rules = RobotsRules.DISALLOW_ALL;
+            ttl = Math.min(ttlMs, UNREACHABLE_TTL_MS);
+            System.err.println("robots.txt of " + origin + " unreachable, not crawling it for the next "
+                    + ttl / 1000 + " s");
+        }
+        future.complete(new Entry(rules, System.currentTimeMillis() + ttl));
+        onFetched.accept(origin, rules);
+        return rules;
+    }
+
+    /**
+     * Rules of the origin, or null when its robots.txt is unreachable
+     */
+    private RobotsRules fetch(String origin) {
+        try {
+            PageFetcher.Response response = fetcher.fetchFile(origin + "/robots.txt", MAX_ROBOTS_BYTES);
+            try (InputStream body = response.bodyStream()) {
+                int status = response.statusCode();
+                if (status >= 200 && status < 300) {
+                    found.incrementAndGet();
+                    return RobotsRules.parse(new String(body.readAllBytes(), StandardCharsets.UTF_8), agent);
+                }
+                // Redirects the client would not follow count as missing too
+                if (status >= 300 && status < 500) {
+                    missing.incrementAndGet();
+                    return RobotsRules.ALLOW_ALL;
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error fetching " + origin + "/robots.txt: " + e.getMessage());
+        }
+        return null;
+    }
+
+    static String originOf(URI uri) {
+        String origin = uri.getScheme().toLowerCase() + "://" + uri.getHost().toLowerCase();
+        return uri.getPort() >= 0 ? origin + ":" + uri.getPort() : origin;
+    }
+
+    public String report() {
+        return String.format("robots.txt: %d site(s) with rules, %d without, %d unreachable; %d URL(s) disallowed",
+                found.get(), missing.get(), unreachable.get(), disallowed.get());
+    }
+}
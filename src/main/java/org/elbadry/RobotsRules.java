@@ -0,0 +1,167 @@
+package org.elbadry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rules of one site's robots.txt for this crawler (RFC 9309). The groups
+ * naming the crawler's user agent apply, or the {@code *} groups when none
+ * does. The longest matching Allow or Disallow pattern decides, Allow winning
+ * a tie; patterns may use {@code *} and a trailing {@code $}. Crawl-delay and
+ * Sitemap lines are kept as well.
+ */
+public final class RobotsRules {
+    public static final RobotsRules ALLOW_ALL = new RobotsRules(List.of(), 0, List.of());
+    public static final RobotsRules DISALLOW_ALL = new RobotsRules(List.of(new Rule("/", false)), 0, List.of());
+
+    private final List<Rule> rules;
+    private final long crawlDelayMs;
+    private final List<String> sitemaps;
+
+    private record Rule(String pattern, boolean allow) {
+    }
+
+    private static final class Group {
+        final List<String> agents = new ArrayList<>();
+        final List<Rule> rules = new ArrayList<>();
+        long crawlDelayMs;
+    }
+
+    private RobotsRules(List<Rule> rules, long crawlDelayMs, List<String> sitemaps) {
+        this.rules = rules;
+        this.crawlDelayMs = crawlDelayMs;
+        this.sitemaps = sitemaps;
+    }
+
+    /**
+     * @param agent product token of this crawler, or {@code *} to follow the rules for every crawler
+     */
+    public static RobotsRules parse(String robotsTxt, String agent) {
+        List<Group> groups = new ArrayList<>();
+        List<String> sitemaps = new ArrayList<>();
+        Group current = null;
+        boolean inRules = false;
+        for (String line : robotsTxt.split("\\r?\\n|\\r")) {
+            int comment = line.indexOf('#');
+            if (comment >= 0) {
+                line = line.substring(0, comment);
+            }
+            int colon = line.indexOf(':');
+            if (colon < 0) {
+                continue;
+            }
+            String key = line.substring(0, colon).trim().toLowerCase();
+            String value = line.substring(colon + 1).trim();
+            switch (key) {
+                case "user-agent" -> {
+                    // Consecutive user-agent lines share one group
+                    if (current == null || inRules) {
+                        current = new Group();
+                        groups.add(current);
+                        inRules = false;
+                    }
+                    current.agents.add(value.toLowerCase());
+                }
+                case "allow", "disallow" -> {
+                    if (current != null) {
+                        inRules = true;
+                        // An empty Disallow allows everything, like having no rule
+                        if (!value.isEmpty()) {
+                            current.rules.add(new Rule(value, key.equals("allow")));
+                        }
+                    }
+                }
+                case "crawl-delay" -> {
+                    if (current != null) {
+                        inRules = true;
+                        try {
+                            current.crawlDelayMs = (long) (Double.parseDouble(value) * 1000);
+                        } catch (NumberFormatException e) {
+                            // Ignored like any other malformed line
+                        }
+                    }
+                }
+                case "sitemap" -> {
+                    if (!value.isEmpty()) {
+                        sitemaps.add(value);
+                    }
+                }
+                default -> {
+                }
+            }
+        }
+
+        List<Rule> rules = new ArrayList<>();
+        long crawlDelayMs = 0;
+        String token = agent.trim().toLowerCase();
+        boolean named = !token.equals("*") && groups.stream().anyMatch(g -> g.agents.contains(token));
+        for (Group group : groups) {
+            if (group.agents.contains(named ? token : "*")) {
+                rules.addAll(group.rules);
+                crawlDelayMs = Math.max(crawlDelayMs, group.crawlDelayMs);
+            }
+        }
+        return new RobotsRules(rules, crawlDelayMs, sitemaps);
+    }
+
+    /**
+     * @param path path and query of the URL, starting with '/'
+     */
+    public boolean isAllowed(String path) {
+        if (path.equals("/robots.txt")) {
+            return true;
+        }
+        int longest = -1;
+        boolean allowed = true;
+        for (Rule rule : rules) {
+            int length = rule.pattern().length();
+            if ((length > longest || (length == longest && rule.allow())) && matches(rule.pattern(), path)) {
+                longest = length;
+                allowed = rule.allow();
+            }
+        }
+        return allowed;
+    }
+
+    /**
+     * Match a pattern against the start of the path, '*' standing for any
+     * characters and a final '$' for the end of the path
+     */
+    static boolean matches(String pattern, String path) {
+        boolean anchored = pattern.endsWith("$");
+        int patternEnd = anchored ? pattern.length() - 1 : pattern.length();
+        int p = 0;
+        int s = 0;
+        int starAt = -1;
+        int starMatch = 0;
+        while (true) {
+            if (p == patternEnd && (!anchored || s == path.length())) {
+                return true;
+            }
+            if (p < patternEnd && pattern.charAt(p) == '*') {
+                starAt = p++;
+                starMatch = s;
+            } else if (p < patternEnd && s < path.length() && pattern.charAt(p) == path.charAt(s)) {
+                p++;
+                s++;
+            } else if (starAt >= 0 && starMatch < path.length()) {
+                // Let the last '*' take one more character and retry
+                p = starAt + 1;
+                s = ++starMatch;
+            } else {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Crawl-delay of the applicable group, 0 when none is given
+     */
+    public long getCrawlDelayMs() {
+        return crawlDelayMs;
+    }
+
+    public List<String> getSitemaps() {
+        return sitemaps;
+    }
+}
@@ -1,18 +1,27 @@
 package org.elbadry;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import org.embeding.Embedding;
+
 import java.util.List;
 
 public class SiteData {
     String url;
     String title;
     String ScrapedData;
-    List<Double> embedding; // Changed from List<List<Double>> to List<Double>
+    Embedding embedding; // float[] backed, written to the request body as a number array
+    List<Passage> passages; // Per-passage vectors, only set when chunked embedding is enabled
+
+    public SiteData(String url, String title, String DATA, Embedding embedding) {
+        this(url, title, DATA, embedding, null);
+    }
 
-    public SiteData(String url, String title, String DATA, List<Double> embedding) {
+    public SiteData(String url, String title, String DATA, Embedding embedding, List<Passage> passages) {
         this.url = url;
         this.title = title;
         this.ScrapedData = DATA;
         this.embedding = embedding;
+        this.passages = passages;
     }
 
     public String getUrl() {
@@ -27,7 +36,34 @@ public class SiteData {
         return title;
     }
 
-    public List<Double> getEmbedding() {
+    // Vector fields indexed for kNN reject empty vectors, so leave the field out instead
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    public Embedding getEmbedding() {
         return embedding;
     }
+
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    public List<Passage> getPassages() {
+        return passages;
+    }
+
+    /**
+     * Rough size of this document once serialized to JSON, for bulk batching
+     */
+    public long estimateSize() {
+        long size = 64 + length(url) + length(title) + length(ScrapedData);
+        if (embedding != null) {
+            size += embedding.dims() * 12L; // ~11 characters and a comma per float
+        }
+        if (passages != null) {
+            for (Passage passage : passages) {
+                size += 32 + length(passage.getText()) + passage.getEmbedding().dims() * 12L;
+            }
+        }
+        return size;
+    }
+
+    private static long length(String value) {
+        return value == null ? 4 : value.length() + 2L;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,174 @@
+package org.elbadry;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads the page URLs listed in sitemaps (sitemaps.org), following sitemap
+ * index files to the sitemaps they list. Files are parsed as a stream, so a
+ * 50,000-URL sitemap is never held in memory, and gzipped sitemaps
+ * (.xml.gz) are unpacked on the fly.
+ */
+public class SitemapReader {
+    // Sitemap files fetched at most per call, index files included
+    private static final int MAX_SITEMAPS = 1000;
+    // Largest sitemap file the protocol allows, uncompressed
+    private static final long MAX_SITEMAP_BYTES = 50L * 1024 * 1024;
+
+    private final PageFetcher fetcher;
+    private final int maxUrls;
+    private final XMLInputFactory xml = XMLInputFactory.newFactory();
+
+    private long sitemapsRead;
+    private long urlsFound;
+    private long otherHostUrls;
+
+    /**
+     * @param maxUrls page URLs read at most per call
+     */
+    public SitemapReader(PageFetcher fetcher, int maxUrls) {
+        this.fetcher = fetcher;
+        this.maxUrls = maxUrls;
+        // Sitemaps come from other sites: no DTDs, no external entities
+        xml.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        xml.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    /**
+     * Pass every page URL of the given sitemaps, and of the sitemaps their
+     * index files list, to the consumer with its lastmod in epoch ms (0 when
+     * the sitemap gives none). URLs on another host than the sitemap listing
+     * them are dropped, as the protocol requires.
+     *
+     * @return the number of page URLs found
+     */
+    public int read(Collection<String> sitemapUrls, BiConsumer<String, Long> pages) {
+        Deque<String> pending = new ArrayDeque<>(sitemapUrls);
+        Set<String> fetched = new HashSet<>();
+        int[] found = {0};
+        while (!pending.isEmpty() && fetched.size() < MAX_SITEMAPS && found[0] < maxUrls) {
+            String sitemap = pending.poll();
+            if (!fetched.add(sitemap)) {
+                continue;
+            }
+            try {
+                PageFetcher.Response response = fetcher.fetchFile(sitemap, MAX_SITEMAP_BYTES);
+                try (InputStream body = unpack(response.bodyStream())) {
+                    if (response.statusCode() != 200) {
+                        System.err.println("Sitemap " + sitemap + " answered " + response.statusCode());
+                        continue;
+                    }
+                    String host = HostScheduler.hostOf(sitemap);
+                    parse(body, pending::add, (url, lastModified) -> {
+                        if (!HostScheduler.hostOf(url).equals(host)) {
+                            otherHostUrls++;
+                        } else if (found[0] < maxUrls) {
+                            found[0]++;
+                            pages.accept(url, lastModified);
+                        }
+                    });
+                    sitemapsRead++;
+                }
+            } catch (IOException | XMLStreamException e) {
+                System.err.println("Error reading sitemap " + sitemap + ": " + e.getMessage());
+            }
+        }
+        urlsFound += found[0];
+        return found[0];
+    }
+
+    /**
+     * Gunzip a sitemap stored as .xml.gz, recognized by the gzip magic bytes
+     */
+    private static InputStream unpack(InputStream body) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(body);
+        buffered.mark(2);
+        int first = buffered.read();
+        int second = buffered.read();
+        buffered.reset();
+        return first == 0x1f && second == 0x8b ? new GZIPInputStream(buffered) : buffered;
+    }
+
+    /**
+     * Each {@code <loc>} of a {@code <sitemapindex>} goes to sitemaps, each
+     * {@code <url>} of a {@code <urlset>} to pages
+     */
+    private void parse(InputStream body, Consumer<String> sitemaps, BiConsumer<String, Long> pages)
+            throws XMLStreamException {
+        XMLStreamReader reader = xml.createXMLStreamReader(body);
+        try {
+            boolean index = false;
+            boolean root = true;
+            String loc = null;
+            long lastModified = 0;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals("url")) {
+                    if (loc != null) {
+                        pages.accept(loc, lastModified);
+                    }
+                    loc = null;
+                    lastModified = 0;
+                }
+                if (event != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                String name = reader.getLocalName();
+                if (root) {
+                    index = name.equals("sitemapindex");
+                    root = false;
+                } else if (name.equals("loc")) {
+                    String text = reader.getElementText().trim();
+                    if (text.isEmpty()) {
+                        continue;
+                    }
+                    if (index) {
+                        sitemaps.accept(text);
+                    } else {
+                        loc = text;
+                    }
+                } else if (name.equals("lastmod") && !index) {
+                    lastModified = parseDate(reader.getElementText().trim());
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * W3C datetime as sitemaps use it: a date, or a date and time with offset
+     */
+    static long parseDate(String value) {
+        try {
+            if (value.length() == 10) {
+                return LocalDate.parse(value).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+            }
+            return OffsetDateTime.parse(value).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return 0;
+        }
+    }
+
+    public String report() {
+        return String.format("sitemaps: %d file(s) read, %d page URL(s) listed, %d on other hosts dropped",
+                sitemapsRead, urlsFound, otherHostUrls);
+    }
+}
@@ -0,0 +1,48 @@
+package org.elbadry;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+
+/**
+ * Counters for one crawl stage: items processed, time spent busy and
+ * the current depth of the queue feeding it.
+ */
+public class StageMetrics {
+    private final String name;
+    private final int parallelism;
+    private final IntSupplier queueDepth;
+    private final AtomicLong busyNanos = new AtomicLong();
+    private final AtomicLong processed = new AtomicLong();
+
+    public StageMetrics(String name, int parallelism, IntSupplier queueDepth) {
+        this.name = name;
+        this.parallelism = parallelism;
+        this.queueDepth = queueDepth;
+    }
+
+    public void record(long startNanos) {
+        busyNanos.addAndGet(System.nanoTime() - startNanos);
+        processed.incrementAndGet();
+    }
+
+    public long getProcessed() {
+        return processed.get();
+    }
+
+    public int getQueueDepth() {
+        return queueDepth.getAsInt();
+    }
+
+    /**
+     * Share of the available worker time spent processing since startNanos
+     */
+    public double busyRatio(long startNanos) {
+        long elapsed = (System.nanoTime() - startNanos) * parallelism;
+        return elapsed > 0 ? Math.min(1.0, (double) busyNanos.get() / elapsed) : 0;
+    }
+
+    public String report(long startNanos) {
+        return String.format("%-6s x%-2d queue=%-4d busy=%5.1f%% processed=%d",
+                name, parallelism, getQueueDepth(), busyRatio(startNanos) * 100, getProcessed());
+    }
+}
@@ -0,0 +1,519 @@
+package org.elbadry;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Single pass over an HTML character stream that keeps only the title, the
+ * visible text and the links, instead of building a DOM. Tags are tokenized
+ * as they are read; script, style, template and noscript bodies and comments
+ * are skipped, block-level tags separate words, and only a, link and base
+ * attributes are materialized. Malformed markup is tolerated rather than
+ * repaired, so the text can differ slightly from jsoup's.
+ */
+public final class StreamingHtmlExtractor {
+    private static final Set<String> SKIPPED = Set.of("script", "style", "template", "noscript");
+    static final Set<String> BLOCKS = Set.of("address", "article", "aside", "blockquote", "br", "dd",
+            "div", "dl", "dt", "fieldset", "figcaption", "figure", "footer", "form", "h1", "h2", "h3", "h4", "h5",
+            "h6", "header", "hr", "li", "main", "nav", "ol", "option", "p", "pre", "section", "table", "tbody", "td",
+            "tfoot", "th", "thead", "title", "tr", "ul");
+    private static final Map<String, String> ENTITIES = Map.ofEntries(
+            Map.entry("amp", "&"), Map.entry("lt", "<"), Map.entry("gt", ">"), Map.entry("quot", "\""),
+            Map.entry("apos", "'"), Map.entry("nbsp", "\u00A0"), Map.entry("copy", "\u00A9"),
+            Map.entry("reg", "\u00AE"), Map.entry("hellip", "\u2026"), Map.entry("mdash", "\u2014"),
+            Map.entry("ndash", "\u2013"),
+            Map.entry("lsquo", "\u2018"), Map.entry("rsquo", "\u2019"), Map.entry("ldquo", "\u201C"),
+            Map.entry("rdquo", "\u201D"), Map.entry("laquo", "\u00AB"), Map.entry("raquo", "\u00BB"));
+    private static final int MAX_ENTITY_LENGTH = 32;
+
+    private final Reader reader;
+    private final char[] buffer = new char[8192];
+    private int position;
+    private int limit;
+    private long remaining;
+    private String baseUri;
+    private URI base; // baseUri parsed, null when it is not a valid URI
+    private String origin; // scheme://host[:port] of baseUri, null when it has none
+    private boolean baseSet;
+
+    private final StringBuilder tagName = new StringBuilder(16);
+    private final TextSink text = new TextSink(4096);
+    private TextSink title;
+    private final List<String> links = new ArrayList<>();
+    private String canonical;
+    private final MainContentExtractor main; // null when only the full text is kept
+
+    /**
+     * Text with runs of whitespace collapsed to one space
+     */
+    private static final class TextSink {
+        final StringBuilder builder;
+        boolean space;
+
+        TextSink(int capacity) {
+            builder = new StringBuilder(capacity);
+        }
+
+        void append(char c) {
+            if (Character.isWhitespace(c) || c == '\u00A0') {
+                space = true;
+                return;
+            }
+            if (space && !builder.isEmpty()) {
+                builder.append(' ');
+            }
+            space = false;
+            builder.append(c);
+        }
+
+        void append(String value) {
+            for (int i = 0; i < value.length(); i++) {
+                append(value.charAt(i));
+            }
+        }
+    }
+
+    private StreamingHtmlExtractor(Reader reader, String baseUri, long maxChars, boolean mainContent) {
+        this.reader = reader;
+        this.remaining = maxChars;
+        this.main = mainContent ? new MainContentExtractor() : null;
+        setBase(baseUri);
+    }
+
+    /**
+     * @param baseUri  URL the page was fetched from, for resolving relative links
+     * @param maxChars characters read at most; the rest of the page is ignored
+     */
+    public static ExtractedPage extract(Reader reader, String baseUri, long maxChars) throws IOException {
+        return extract(reader, baseUri, maxChars, false);
+    }
+
+    /**
+     * @param mainContent also pick out the main content, see {@link MainContentExtractor}
+     */
+    public static ExtractedPage extract(Reader reader, String baseUri, long maxChars, boolean mainContent)
+            throws IOException {
+        return new StreamingHtmlExtractor(reader, baseUri, maxChars, mainContent).run();
+    }
+
+    private ExtractedPage run() throws IOException {
+        int c;
+        while ((c = next()) != -1) {
+            if (c == '<') {
+                tag();
+            } else if (c == '&') {
+                String decoded = entity();
+                text.append(decoded);
+                if (main != null) {
+                    main.append(decoded);
+                }
+            } else {
+                text.append((char) c);
+                if (main != null) {
+                    main.append((char) c);
+                }
+            }
+        }
+        return new ExtractedPage(title != null ? title.builder.toString() : "", text.builder.toString(), links,
+                canonical, main != null ? main.mainText() : null);
+    }
+
+    private int next() throws IOException {
+        if (position == limit) {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int read = reader.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read <= 0) {
+                return -1;
+            }
+            remaining -= read;
+            position = 0;
+            limit = read;
+        }
+        return buffer[position++];
+    }
+
+    /**
+     * Step back over the character next() just returned
+     */
+    private void unread() {
+        position--;
+    }
+
+    private void tag() throws IOException {
+        int c = next();
+        if (c == '!') {
+            if (next() == '-' && next() == '-') {
+                skipComment();
+            } else {
+                skipPast('>');
+            }
+        } else if (c == '?') {
+            skipPast('>');
+        } else if (c == '/') {
+            readTagName();
+            skipPast('>');
+            if (BLOCKS.contains(tagName.toString())) {
+                text.space = true;
+            }
+            if (main != null) {
+                main.tag(tagName.toString(), false);
+            }
+        } else if (isLetter(c)) {
+            unread();
+            readTagName();
+            startTag(tagName.toString());
+        } else {
+            // A lone '<' is text
+            text.append('<');
+            if (c != -1) {
+                unread();
+            }
+        }
+    }
+
+    private void startTag(String name) throws IOException {
+        boolean capture = name.equals("a") || name.equals("link") || name.equals("base");
+        String href = null;
+        String rel = null;
+        int c;
+        while ((c = skipWhitespace()) != -1 && c != '>') {
+            if (c == '/') {
+                continue;
+            }
+            StringBuilder attribute = capture ? new StringBuilder() : null;
+            while (c != -1 && !Character.isWhitespace(c) && c != '=' && c != '>' && c != '/') {
+                if (capture) {
+                    attribute.append(Character.toLowerCase((char) c));
+                }
+                c = next();
+            }
+            if (c != -1 && Character.isWhitespace(c)) {
+                c = skipWhitespace();
+            }
+            String value = null;
+            if (c == '=') {
+                value = readAttributeValue(capture);
+            } else if (c != -1) {
+                unread();
+            }
+            if (capture && value != null) {
+                String key = attribute.toString();
+                if (key.equals("href") && href == null) {
+                    href = value;
+                } else if (key.equals("rel") && rel == null) {
+                    rel = value;
+                }
+            }
+        }
+
+        if (href != null) {
+            switch (name) {
+                case "a" -> {
+                    String url = resolve(href);
+                    if (!url.isEmpty()) {
+                        links.add(url);
+                    }
+                }
+                case "link" -> {
+                    if (canonical == null && rel != null && isCanonical(rel)) {
+                        String url = resolve(href);
+                        canonical = url.isEmpty() ? null : url;
+                    }
+                }
+                default -> {
+                    // The first <base href> applies to the whole document
+                    if (!baseSet) {
+                        String url = resolve(href);
+                        if (!url.isEmpty()) {
+                            setBase(url);
+                        }
+                        baseSet = true;
+                    }
+                }
+            }
+        }
+
+        if (BLOCKS.contains(name)) {
+            text.space = true;
+        }
+        if (main != null) {
+            main.tag(name, true);
+        }
+        if (name.equals("title")) {
+            if (title == null) {
+                title = new TextSink(128);
+                readRawText(name, title);
+                // jsoup's Document.text() includes the title as well
+                text.append(title.builder.toString());
+                text.space = true;
+            } else {
+                readRawText(name, null);
+            }
+        } else if (SKIPPED.contains(name)) {
+            readRawText(name, null);
+        }
+    }
+
+    private void setBase(String uri) {
+        baseUri = uri;
+        base = parse(uri);
+        int hostStart = uri.indexOf("://");
+        if (hostStart < 0) {
+            origin = null;
+            return;
+        }
+        int pathStart = uri.indexOf('/', hostStart + 3);
+        origin = pathStart < 0 ? uri : uri.substring(0, pathStart);
+    }
+
+    /**
+     * Absolute URL of an href, empty when it cannot be resolved. Absolute http(s)
+     * and root-relative hrefs, most links on a page, skip building a
+     * java.net.URI; the canonicalizer normalizes them later either way.
+     */
+    private String resolve(String href) {
+        String trimmed = href.trim();
+        if (isPlain(trimmed)) {
+            if (trimmed.regionMatches(true, 0, "https://", 0, 8) || trimmed.regionMatches(true, 0, "http://", 0, 7)) {
+                return trimmed;
+            }
+            if (origin != null && trimmed.startsWith("/") && !trimmed.startsWith("//")) {
+                return origin + trimmed;
+            }
+        }
+        URI target = parse(trimmed);
+        if (target == null) {
+            return "";
+        }
+        if (target.isAbsolute()) {
+            return target.toString();
+        }
+        if (base == null || !base.isAbsolute()) {
+            return "";
+        }
+        if (trimmed.isEmpty() || trimmed.startsWith("?")) {
+            // URI.resolve follows RFC 2396 here, which drops the last path segment
+            int end = indexOfAny(baseUri, trimmed.isEmpty() ? '#' : '?', '#');
+            return (end < 0 ? baseUri : baseUri.substring(0, end)) + trimmed;
+        }
+        return base.resolve(target).toString();
+    }
+
+    /**
+     * @return the href as a URI, with spaces escaped; null when it is not valid
+     */
+    private static URI parse(String href) {
+        try {
+            return new URI(href.replace(" ", "%20"));
+        } catch (URISyntaxException e) {
+            return null;
+        }
+    }
+
+    private static int indexOfAny(String s, char a, char b) {
+        int first = s.indexOf(a);
+        int second = s.indexOf(b);
+        return first < 0 ? second : second < 0 ? first : Math.min(first, second);
+    }
+
+    /**
+     * No whitespace or dot segments that java.net.URL would rewrite
+     */
+    private static boolean isPlain(String href) {
+        for (int i = 0; i < href.length(); i++) {
+            char c = href.charAt(i);
+            if (c <= ' ' || (c == '.' && i > 0 && href.charAt(i - 1) == '/')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isCanonical(String rel) {
+        for (String token : rel.trim().split("\\s+")) {
+            if (token.equalsIgnoreCase("canonical")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String readAttributeValue(boolean capture) throws IOException {
+        int c = skipWhitespace();
+        StringBuilder value = capture ? new StringBuilder() : null;
+        if (c == '"' || c == '\'') {
+            int quote = c;
+            while ((c = next()) != -1 && c != quote) {
+                if (capture) {
+                    appendAttributeChar(value, c);
+                }
+            }
+        } else {
+            while (c != -1 && !Character.isWhitespace(c) && c != '>') {
+                if (capture) {
+                    appendAttributeChar(value, c);
+                }
+                c = next();
+            }
+            if (c == '>') {
+                unread();
+            }
+        }
+        return capture ? value.toString() : null;
+    }
+
+    private void appendAttributeChar(StringBuilder value, int c) throws IOException {
+        if (c == '&') {
+            value.append(entity());
+        } else {
+            value.append((char) c);
+        }
+    }
+
+    /**
+     * Content of a raw text element up to its end tag, entity-decoded into the
+     * sink, or dropped when the sink is null
+     */
+    private void readRawText(String name, TextSink sink) throws IOException {
+        int c;
+        while ((c = next()) != -1) {
+            if (c == '<') {
+                int matched = matchEndTag(name);
+                if (matched < 0) {
+                    skipPast('>');
+                    return;
+                }
+                if (sink != null) {
+                    sink.append('<');
+                    if (matched > 0) {
+                        sink.append('/');
+                        sink.append(name.substring(0, matched - 1));
+                    }
+                }
+            } else if (sink != null) {
+                if (c == '&') {
+                    sink.append(entity());
+                } else {
+                    sink.append((char) c);
+                }
+            }
+        }
+    }
+
+    /**
+     * After a '<': -1 when "/name" followed by a delimiter comes next, else how
+     * many characters of "/name" matched before a mismatch (which is unread)
+     */
+    private int matchEndTag(String name) throws IOException {
+        int c = next();
+        if (c != '/') {
+            if (c != -1) {
+                unread();
+            }
+            return 0;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            c = next();
+            if (c == -1 || Character.toLowerCase((char) c) != name.charAt(i)) {
+                if (c != -1) {
+                    unread();
+                }
+                return i + 1;
+            }
+        }
+        c = next();
+        if (c == '>' || c == '/' || (c != -1 && Character.isWhitespace(c))) {
+            if (c == '>') {
+                unread();
+            }
+            return -1;
+        }
+        if (c != -1) {
+            unread();
+        }
+        return name.length() + 1;
+    }
+
+    /**
+     * After a '&': the decoded character reference, or the raw text when it is not one
+     */
+    private String entity() throws IOException {
+        StringBuilder name = new StringBuilder(8);
+        int c;
+        while ((c = next()) != -1 && name.length() < MAX_ENTITY_LENGTH
+                && (isLetter(c) || Character.isDigit(c) || (c == '#' && name.isEmpty()))) {
+            name.append((char) c);
+        }
+        boolean terminated = c == ';';
+        if (c != -1 && !terminated) {
+            unread();
+        }
+        String decoded = decode(name.toString());
+        if (decoded != null) {
+            return decoded;
+        }
+        return "&" + name + (terminated ? ";" : "");
+    }
+
+    private static String decode(String name) {
+        if (name.length() > 1 && name.charAt(0) == '#') {
+            try {
+                boolean hex = name.charAt(1) == 'x' || name.charAt(1) == 'X';
+                int codePoint = hex ? Integer.parseInt(name.substring(2), 16) : Integer.parseInt(name.substring(1));
+                return Character.isValidCodePoint(codePoint) ? new String(Character.toChars(codePoint)) : null;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return ENTITIES.get(name);
+    }
+
+    private void readTagName() throws IOException {
+        tagName.setLength(0);
+        int c;
+        while ((c = next()) != -1 && (isLetter(c) || Character.isDigit(c) || c == '-' || c == ':')) {
+            tagName.append(Character.toLowerCase((char) c));
+        }
+        if (c != -1) {
+            unread();
+        }
+    }
+
+    private void skipComment() throws IOException {
+        int dashes = 0;
+        int c;
+        while ((c = next()) != -1) {
+            if (c == '>' && dashes >= 2) {
+                return;
+            }
+            dashes = c == '-' ? dashes + 1 : 0;
+        }
+    }
+
+    private void skipPast(char end) throws IOException {
+        int c;
+        while ((c = next()) != -1 && c != end) {
+            // skip
+        }
+    }
+
+    private int skipWhitespace() throws IOException {
+        int c;
+        while ((c = next()) != -1 && Character.isWhitespace(c)) {
+            // skip
+        }
+        return c;
+    }
+
+    private static boolean isLetter(int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+}
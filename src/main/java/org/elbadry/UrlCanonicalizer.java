@@ -0,0 +1,197 @@
+package org.elbadry;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Rewrites URLs to one canonical form, so that variants of a page are fetched,
+ * embedded and indexed once. The canonical form has a lowercase scheme and
+ * host, no default port, no fragment, no dot segments, query parameters
+ * sorted with the filtered ones (utm_*, click IDs) removed, and optionally
+ * https instead of http and no trailing slash.
+ */
+public class UrlCanonicalizer {
+    private static final Pattern PERCENT_ESCAPE = Pattern.compile("%[0-9a-fA-F]{2}");
+
+    private final List<String> droppedParams;
+    private final boolean forceHttps;
+    private final boolean stripTrailingSlash;
+
+    // Accounting: raw link forms that differed from their canonical URL
+    private final UrlSeenSet rawVariants;
+    private final AtomicLong rewritten = new AtomicLong();
+    private final AtomicLong fetchesSaved = new AtomicLong();
+    private final AtomicLong canonicalDuplicates = new AtomicLong();
+    private final AtomicLong canonicalClaimed = new AtomicLong();
+
+    /**
+     * @param droppedParams      query parameter names to remove; a trailing * matches a prefix (utm_*)
+     * @param forceHttps         treat http and https as the same page, keeping https
+     * @param stripTrailingSlash treat /path/ and /path as the same page
+     * @param exactUrls          raw variants remembered exactly before the set turns probabilistic
+     * @param falsePositiveRate  false-positive rate of the set of raw variants after that
+     */
+    public UrlCanonicalizer(List<String> droppedParams, boolean forceHttps, boolean stripTrailingSlash,
+                            long exactUrls, double falsePositiveRate) {
+        this.droppedParams = droppedParams.stream()
+                .map(String::trim)
+                .filter(param -> !param.isEmpty())
+                .map(param -> param.toLowerCase(Locale.ROOT))
+                .toList();
+        this.forceHttps = forceHttps;
+        this.stripTrailingSlash = stripTrailingSlash;
+        this.rawVariants = new UrlSeenSet(exactUrls, falsePositiveRate);
+    }
+
+    /**
+     * Canonical form of an absolute URL, or null when it is not an http(s) URL
+     */
+    public String canonicalize(String url) {
+        URI uri;
+        try {
+            // Browsers accept raw spaces in hrefs, URI does not
+            uri = new URI(url.trim().replace(" ", "%20"));
+        } catch (URISyntaxException e) {
+            return null;
+        }
+        String scheme = uri.getScheme();
+        String host = uri.getHost();
+        if (scheme == null || host == null) {
+            return null;
+        }
+        scheme = scheme.toLowerCase(Locale.ROOT);
+        if (!scheme.equals("http") && !scheme.equals("https")) {
+            return null;
+        }
+        int port = uri.getPort();
+        if ((port == 80 && scheme.equals("http")) || (port == 443 && scheme.equals("https"))) {
+            port = -1;
+        }
+        if (forceHttps && scheme.equals("http") && port == -1) {
+            scheme = "https";
+        }
+        host = host.toLowerCase(Locale.ROOT);
+        if (host.endsWith(".")) {
+            host = host.substring(0, host.length() - 1);
+        }
+
+        StringBuilder canonical = new StringBuilder(url.length());
+        canonical.append(scheme).append("://");
+        if (uri.getRawUserInfo() != null) {
+            canonical.append(uri.getRawUserInfo()).append('@');
+        }
+        canonical.append(host);
+        if (port != -1) {
+            canonical.append(':').append(port);
+        }
+        canonical.append(path(uri));
+        String query = query(uri.getRawQuery());
+        if (!query.isEmpty()) {
+            canonical.append('?').append(query);
+        }
+        return canonical.toString();
+    }
+
+    private String path(URI uri) {
+        String path = uri.normalize().getRawPath();
+        if (path == null || path.isEmpty()) {
+            return "/";
+        }
+        // Dot segments above the root are dropped; /..name is an ordinary segment
+        while (path.equals("/..") || path.startsWith("/../")) {
+            path = path.substring(3);
+        }
+        if (stripTrailingSlash) {
+            while (path.length() > 1 && path.endsWith("/")) {
+                path = path.substring(0, path.length() - 1);
+            }
+        }
+        return path.isEmpty() ? "/" : upperCaseEscapes(path);
+    }
+
+    /**
+     * Drop filtered and empty parameters, then sort by name; parameters with
+     * the same name keep their relative order
+     */
+    private String query(String rawQuery) {
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return "";
+        }
+        List<String> params = new ArrayList<>();
+        for (String param : rawQuery.split("&")) {
+            if (!param.isEmpty() && !isDropped(param)) {
+                params.add(upperCaseEscapes(param));
+            }
+        }
+        params.sort(Comparator.comparing(UrlCanonicalizer::paramName));
+        return String.join("&", params);
+    }
+
+    private boolean isDropped(String param) {
+        String name = paramName(param).toLowerCase(Locale.ROOT);
+        for (String dropped : droppedParams) {
+            if (dropped.endsWith("*")
+                    ? name.startsWith(dropped.substring(0, dropped.length() - 1))
+                    : name.equals(dropped)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String paramName(String param) {
+        int equals = param.indexOf('=');
+        return equals < 0 ? param : param.substring(0, equals);
+    }
+
+    private static String upperCaseEscapes(String value) {
+        if (value.indexOf('%') < 0) {
+            return value;
+        }
+        Matcher matcher = PERCENT_ESCAPE.matcher(value);
+        StringBuilder result = new StringBuilder(value.length());
+        while (matcher.find()) {
+            matcher.appendReplacement(result, matcher.group().toUpperCase(Locale.ROOT));
+        }
+        return matcher.appendTail(result).toString();
+    }
+
+    /**
+     * Account for one discovered link. A raw form that differs from its
+     * canonical URL, appears for the first time and maps to an already seen
+     * page would have been fetched again without canonicalization.
+     *
+     * @param canonicalIsNew whether the canonical URL was new to the seen-set
+     */
+    public void recordLink(String raw, String canonical, boolean canonicalIsNew) {
+        if (raw.equals(canonical)) {
+            return;
+        }
+        rewritten.incrementAndGet();
+        if (rawVariants.add(raw) && !canonicalIsNew) {
+            fetchesSaved.incrementAndGet();
+        }
+    }
+
+    /**
+     * A fetched page declared a rel=canonical URL
+     *
+     * @param duplicate the canonical page was already seen, so this one is not indexed
+     */
+    public void recordDeclaredCanonical(boolean duplicate) {
+        (duplicate ? canonicalDuplicates : canonicalClaimed).incrementAndGet();
+    }
+
+    public String report() {
+        return String.format("canonicalizer: %d link(s) rewritten, %d fetch(es) saved, rel=canonical: "
+                        + "%d duplicate page(s) not indexed, %d page(s) indexed under their canonical URL",
+                rewritten.get(), fetchesSaved.get(), canonicalDuplicates.get(), canonicalClaimed.get());
+    }
+}
@@ -0,0 +1,96 @@
+package org.elbadry;
+
+import java.net.URI;
+import java.util.Map;
+
+/**
+ * How valuable a queued URL looks; the priority frontier crawls higher
+ * scores first. Scores are in the same units as one level of depth, so a
+ * score of -1 ranks with a page one link further from the seed. Scorers add
+ * up with {@link #plus(UrlScorer)}; the factory methods are the built-in
+ * signals and any other lambda can be added to them.
+ */
+@FunctionalInterface
+public interface UrlScorer {
+    double score(Candidate candidate);
+
+    /**
+     * What is known about a URL when it is queued
+     *
+     * @param inLinks      links to it found so far (estimated, never lower than the true count)
+     * @param lastModified sitemap lastmod in epoch ms, 0 when unknown
+     * @param hostQueued   URLs of the same host queued before it
+     */
+    record Candidate(String url, int depth, int inLinks, long lastModified, int hostQueued) {
+    }
+
+    default UrlScorer plus(UrlScorer other) {
+        return candidate -> score(candidate) + other.score(candidate);
+    }
+
+    /**
+     * -weight per link from the seed; alone, it crawls breadth-first
+     */
+    static UrlScorer depth(double weight) {
+        return candidate -> -weight * candidate.depth();
+    }
+
+    /**
+     * +weight each time the number of pages linking to the URL doubles
+     */
+    static UrlScorer inLinks(double weight) {
+        return candidate -> weight * Math.log(Math.max(1, candidate.inLinks())) / Math.log(2);
+    }
+
+    /**
+     * Up to +weight for pages a sitemap lists as modified in the last 30
+     * days, the more recent the more
+     */
+    static UrlScorer freshness(double weight) {
+        return candidate -> {
+            if (candidate.lastModified() <= 0) {
+                return 0;
+            }
+            double ageDays = (System.currentTimeMillis() - candidate.lastModified()) / 86_400_000.0;
+            return weight * Math.max(0, 1 - Math.max(0, ageDays) / 30);
+        };
+    }
+
+    /**
+     * -weight each time the number of URLs already queued for the host
+     * doubles past 100, so small hosts are not starved by a large one
+     */
+    static UrlScorer hostFairness(double weight) {
+        return candidate -> -weight * Math.log(1 + candidate.hostQueued() / 100.0) / Math.log(2);
+    }
+
+    /**
+     * Sum of the weights of the patterns matching the URL's path and query.
+     * Patterns use robots.txt syntax: a path prefix with '*' wildcards and an
+     * optional '$' end anchor.
+     */
+    static UrlScorer urlPatterns(Map<String, Double> weights) {
+        return candidate -> {
+            if (weights.isEmpty()) {
+                return 0;
+            }
+            String path;
+            try {
+                URI uri = URI.create(candidate.url());
+                path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+                if (uri.getRawQuery() != null) {
+                    path += "?" + uri.getRawQuery();
+                }
+            } catch (IllegalArgumentException e) {
+                return 0;
+            }
+            double score = 0;
+            for (Map.Entry<String, Double> pattern : weights.entrySet()) {
+                if (RobotsRules.matches(pattern.getKey(), path)) {
+                    score += pattern.getValue();
+                }
+            }
+            return score;
+        };
+    }
+}
@@ -0,0 +1,213 @@
+package org.elbadry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Set of every URL the crawler has discovered, kept as 64-bit fingerprints
+ * instead of strings. Fingerprints go into a primitive open-addressing table
+ * (8 bytes a slot) until it holds {@code exactCapacity} URLs; after that new
+ * URLs go into a scalable Bloom filter, a chain of filters that each double
+ * in size with a tighter error rate, so the overall false positive rate stays
+ * under {@code falsePositiveRate} however many URLs arrive. A false positive
+ * or a fingerprint collision makes the crawler skip a URL it never saw.
+ */
+public class UrlSeenSet {
+    private static final float MAX_LOAD = 0.7f;
+    private static final int INITIAL_SLOTS = 1 << 12;
+    private static final int MAX_SLOTS = 1 << 30;
+    // Each Bloom filter in the chain holds twice the URLs of the one before at half its error rate
+    private static final int BLOOM_GROWTH = 2;
+    private static final double BLOOM_TIGHTENING = 0.5;
+    private static final long FIRST_BLOOM_CAPACITY = 1 << 20;
+    // Stand-in for a fingerprint of 0, which marks an empty slot
+    private static final long ZERO_FINGERPRINT = 0x9E3779B97F4A7C15L;
+
+    private final long exactCapacity;
+    private final double falsePositiveRate;
+
+    private long[] table = new long[INITIAL_SLOTS];
+    private long exactSize;
+    private final List<BloomFilter> bloomTier = new ArrayList<>();
+    private long bloomSize;
+    private long urlChars;
+
+    /**
+     * Fixed-size Bloom filter, probed with double hashing on the fingerprint
+     */
+    private static class BloomFilter {
+        final long[] bits;
+        final long bitCount;
+        final int hashes;
+        final long capacity;
+        long size;
+
+        BloomFilter(long capacity, double falsePositiveRate) {
+            double ln2 = Math.log(2);
+            long m = (long) Math.ceil(-capacity * Math.log(falsePositiveRate) / (ln2 * ln2));
+            this.bits = new long[(int) Math.min(Integer.MAX_VALUE - 8, (m + 63) / 64)];
+            this.bitCount = bits.length * 64L;
+            this.hashes = Math.max(1, (int) Math.round((double) bitCount / capacity * ln2));
+            this.capacity = capacity;
+        }
+
+        boolean contains(long fingerprint) {
+            long h2 = mix(fingerprint ^ ZERO_FINGERPRINT) | 1;
+            for (int i = 0; i < hashes; i++) {
+                long bit = Long.remainderUnsigned(fingerprint + i * h2, bitCount);
+                if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void add(long fingerprint) {
+            long h2 = mix(fingerprint ^ ZERO_FINGERPRINT) | 1;
+            for (int i = 0; i < hashes; i++) {
+                long bit = Long.remainderUnsigned(fingerprint + i * h2, bitCount);
+                bits[(int) (bit >>> 6)] |= 1L << bit;
+            }
+            size++;
+        }
+    }
+
+    /**
+     * @param exactCapacity     URLs kept in the exact table before the Bloom tier takes over
+     * @param falsePositiveRate upper bound on the Bloom tier's false positive rate
+     */
+    public UrlSeenSet(long exactCapacity, double falsePositiveRate) {
+        this.exactCapacity = Math.max(1, Math.min(exactCapacity, (long) (MAX_SLOTS * MAX_LOAD)));
+        this.falsePositiveRate = falsePositiveRate;
+    }
+
+    /**
+     * Record a URL, returning true if it was not seen before
+     */
+    public boolean add(String url) {
+        long fingerprint = fingerprint(url);
+        synchronized (this) {
+            if (containsFingerprint(fingerprint)) {
+                return false;
+            }
+            if (exactSize < exactCapacity) {
+                insertExact(fingerprint);
+            } else {
+                addToBloomTier(fingerprint);
+            }
+            urlChars += url.length();
+            return true;
+        }
+    }
+
+    public boolean contains(String url) {
+        long fingerprint = fingerprint(url);
+        synchronized (this) {
+            return containsFingerprint(fingerprint);
+        }
+    }
+
+    public synchronized long size() {
+        return exactSize + bloomSize;
+    }
+
+    /**
+     * Heap taken by the table and the Bloom filters
+     */
+    public synchronized long memoryBytes() {
+        long bytes = table.length * 8L;
+        for (BloomFilter filter : bloomTier) {
+            bytes += filter.bits.length * 8L;
+        }
+        return bytes;
+    }
+
+    private boolean containsFingerprint(long fingerprint) {
+        int mask = table.length - 1;
+        for (int slot = (int) fingerprint & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+            if (table[slot] == fingerprint) {
+                return true;
+            }
+        }
+        for (BloomFilter filter : bloomTier) {
+            if (filter.contains(fingerprint)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void insertExact(long fingerprint) {
+        if (exactSize + 1 > table.length * MAX_LOAD) {
+            resize(table.length * 2);
+        }
+        int mask = table.length - 1;
+        int slot = (int) fingerprint & mask;
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = fingerprint;
+        exactSize++;
+    }
+
+    private void resize(int slots) {
+        long[] old = table;
+        table = new long[slots];
+        int mask = slots - 1;
+        for (long fingerprint : old) {
+            if (fingerprint != 0) {
+                int slot = (int) fingerprint & mask;
+                while (table[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = fingerprint;
+            }
+        }
+    }
+
+    private void addToBloomTier(long fingerprint) {
+        BloomFilter last = bloomTier.isEmpty() ? null : bloomTier.get(bloomTier.size() - 1);
+        if (last == null || last.size >= last.capacity) {
+            int n = bloomTier.size();
+            // Error rates p0 * r^i sum to at most p0 / (1 - r), which is falsePositiveRate
+            double rate = falsePositiveRate * (1 - BLOOM_TIGHTENING) * Math.pow(BLOOM_TIGHTENING, n);
+            last = new BloomFilter(FIRST_BLOOM_CAPACITY * (long) Math.pow(BLOOM_GROWTH, n), rate);
+            bloomTier.add(last);
+        }
+        last.add(fingerprint);
+        bloomSize++;
+    }
+
+    /**
+     * 64-bit FNV-1a over the URL's chars, finished with a Murmur3 mix so the
+     * low bits used for table slots are well spread
+     */
+    static long fingerprint(String url) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < url.length(); i++) {
+            hash ^= url.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash = mix(hash);
+        return hash != 0 ? hash : ZERO_FINGERPRINT;
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    public synchronized String report() {
+        long urls = exactSize + bloomSize;
+        long bytes = memoryBytes();
+        // A String in a concurrent set: String and byte[] headers, the chars, map node and table slot
+        double asStrings = urls == 0 ? 0 : 88 + (double) urlChars / urls;
+        return String.format("seen-set: %d URL(s) (%d exact, %d in %d Bloom filter(s)), %.1f MB, "
+                        + "%.1f bytes/URL vs ~%.0f as strings", urls, exactSize, bloomSize, bloomTier.size(),
+                bytes / (1024.0 * 1024.0), urls == 0 ? 0 : (double) bytes / urls, asStrings);
+    }
+}
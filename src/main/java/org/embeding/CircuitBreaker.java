@@ -0,0 +1,108 @@
+package org.embeding;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Circuit breaker for calls to an external service.
+ * CLOSED lets every call through and counts consecutive failures; after
+ * failureThreshold of them it goes OPEN and callers fail fast without a
+ * network round trip. Once openDurationMs has passed, a single call is let
+ * through as a probe (HALF_OPEN): success closes the breaker again, failure
+ * re-opens it for another period.
+ */
+public class CircuitBreaker {
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openDurationMs;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean probeInFlight;
+
+    private final Map<State, AtomicLong> transitions = new EnumMap<>(State.class);
+    private final AtomicLong rejected = new AtomicLong();
+
+    public CircuitBreaker(String name, int failureThreshold, long openDurationMs) {
+        this.name = name;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openDurationMs = Math.max(0, openDurationMs);
+        for (State s : State.values()) {
+            transitions.put(s, new AtomicLong());
+        }
+    }
+
+    /**
+     * @return true if the call may go ahead; false means fail fast
+     */
+    public synchronized boolean allowRequest() {
+        switch (state) {
+            case CLOSED -> {
+                return true;
+            }
+            case OPEN -> {
+                if (System.currentTimeMillis() - openedAt >= openDurationMs) {
+                    transition(State.HALF_OPEN);
+                    probeInFlight = true;
+                    return true;
+                }
+            }
+            case HALF_OPEN -> {
+                if (!probeInFlight) {
+                    probeInFlight = true;
+                    return true;
+                }
+            }
+        }
+        rejected.incrementAndGet();
+        return false;
+    }
+
+    public synchronized void recordSuccess() {
+        consecutiveFailures = 0;
+        probeInFlight = false;
+        if (state != State.CLOSED) {
+            transition(State.CLOSED);
+        }
+    }
+
+    public synchronized void recordFailure() {
+        consecutiveFailures++;
+        probeInFlight = false;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            openedAt = System.currentTimeMillis();
+            transition(State.OPEN);
+        }
+    }
+
+    private void transition(State next) {
+        System.out.println("Circuit " + name + ": " + state + " -> " + next);
+        state = next;
+        transitions.get(next).incrementAndGet();
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Number of times the breaker has entered the given state
+     */
+    public long getTransitionCount(State target) {
+        return transitions.get(target).get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    public String report() {
+        return String.format("circuit %s: %s, opened %d, half-open %d, closed %d, rejected %d",
+                name, getState(), getTransitionCount(State.OPEN), getTransitionCount(State.HALF_OPEN),
+                getTransitionCount(State.CLOSED), getRejectedCount());
+    }
+}
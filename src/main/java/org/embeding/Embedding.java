@@ -0,0 +1,91 @@
+package org.embeding;
+
+import com.fasterxml.jackson.annotation.JsonValue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Embedding vector backed by a float[] with its L2 norm computed once.
+ * Takes 4 bytes per dimension instead of a boxed Double, is written to JSON
+ * as a plain number array and is scored by {@link SimilarityKernels} on the raw arrays.
+ * Instances are immutable: the backing array must not be modified.
+ */
+public final class Embedding {
+    public static final Embedding EMPTY = new Embedding(new float[0]);
+
+    private final float[] values;
+    private final double norm;
+
+    private Embedding(float[] values) {
+        this.values = values;
+        this.norm = Math.sqrt(dot(values, values));
+    }
+
+    /**
+     * Wrap the array without copying it
+     */
+    public static Embedding of(float[] values) {
+        return values == null || values.length == 0 ? EMPTY : new Embedding(values);
+    }
+
+    public static Embedding of(List<? extends Number> values) {
+        if (values == null || values.isEmpty()) {
+            return EMPTY;
+        }
+        float[] array = new float[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i).floatValue();
+        }
+        return new Embedding(array);
+    }
+
+    /**
+     * The backing array, also what Jackson writes for this vector
+     */
+    @JsonValue
+    public float[] values() {
+        return values;
+    }
+
+    public int dims() {
+        return values.length;
+    }
+
+    public boolean isEmpty() {
+        return values.length == 0;
+    }
+
+    public float get(int i) {
+        return values[i];
+    }
+
+    public double norm() {
+        return norm;
+    }
+
+    /**
+     * Cosine similarity using both precomputed norms, 0 when dimensions differ or a vector is zero
+     */
+    public double cosine(Embedding other) {
+        if (values.length != other.values.length || norm == 0 || other.norm == 0) {
+            return 0;
+        }
+        return dot(values, other.values) / (norm * other.norm);
+    }
+
+    public static double dot(float[] a, float[] b) {
+        return SimilarityKernels.INSTANCE.dot(a, b);
+    }
+
+    /**
+     * Boxed copy, for client APIs that only take a list
+     */
+    public List<Float> toFloatList() {
+        List<Float> list = new ArrayList<>(values.length);
+        for (float value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+}
@@ -0,0 +1,64 @@
+package org.embeding;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Compares embedding throughput of one text per call against the batched path.
+ * Needs a running Ollama server, like {@link OllamaAPITest}.
+ * Usage: EmbeddingBatchTest [texts] [batchSize]
+ */
+public class EmbeddingBatchTest {
+    private static final String MODEL = "nomic-embed-text";
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int batchSize = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+
+        // Each path gets its own texts, so the second one is not answered from the embedding cache
+        List<String> singleTexts = texts("single", count);
+        List<String> batchTexts = texts("batch", count);
+
+        // Warm up the model so loading it is not counted
+        GenerateEmbeddings.getEmbeddings(MODEL, "Warm-up " + System.nanoTime());
+
+        long start = System.nanoTime();
+        for (String text : singleTexts) {
+            GenerateEmbeddings.getEmbeddings(MODEL, text);
+        }
+        double singleSeconds = (System.nanoTime() - start) / 1_000_000_000.0;
+
+        start = System.nanoTime();
+        EmbeddingBatcher batcher = new EmbeddingBatcher(MODEL, batchSize, 50, count, 1);
+        try {
+            List<CompletableFuture<Embedding>> results = new ArrayList<>(count);
+            for (String text : batchTexts) {
+                results.add(batcher.submit(text));
+            }
+            CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).join();
+        } finally {
+            batcher.close();
+        }
+        double batchSeconds = (System.nanoTime() - start) / 1_000_000_000.0;
+        System.out.println(batcher.report());
+
+        System.out.println(String.format("single: %d texts in %.2f s (%.1f texts/s)", count, singleSeconds, count / singleSeconds));
+        System.out.println(String.format("batch%d: %d texts in %.2f s (%.1f texts/s)", batchSize, count, batchSeconds, count / batchSeconds));
+        System.out.println(String.format("speedup: %.2fx", singleSeconds / batchSeconds));
+    }
+
+    /**
+     * Distinct texts of about a paragraph, unique to this run
+     */
+    private static List<String> texts(String path, int count) {
+        long run = System.nanoTime();
+        List<String> texts = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            texts.add("Sample page " + i + " (" + path + " " + run + "): Geeksblabla is a Moroccan tech community "
+                    + "hosting a weekly podcast, the annual BlablaConf conference and the State Of Dev survey. "
+                    + "Topic number " + i + ".");
+        }
+        return texts;
+    }
+}
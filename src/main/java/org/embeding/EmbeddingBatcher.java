@@ -0,0 +1,138 @@
+package org.embeding;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects texts from many callers and embeds them together.
+ * A batch is sent as one {@link GenerateEmbeddings#getEmbeddings(String, List)} call
+ * once it holds batchSize texts or the first text in it has waited maxWaitMs.
+ * Each caller gets its own vector back through the returned future.
+ */
+public class EmbeddingBatcher {
+    private final String model;
+    private final int batchSize;
+    private final long maxWaitNanos;
+    private final BlockingQueue<Request> queue;
+    private final List<Thread> dispatchers = new ArrayList<>();
+    private volatile boolean closed;
+
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong texts = new AtomicLong();
+    private final AtomicLong busyNanos = new AtomicLong();
+
+    private record Request(String text, CompletableFuture<Embedding> result) {
+    }
+
+    /**
+     * @param model       embedding model name
+     * @param batchSize   maximum number of texts per embed call
+     * @param maxWaitMs   how long a text may wait for the batch to fill up
+     * @param capacity    texts that may be queued before {@link #submit(String)} blocks
+     * @param parallelism number of embed calls allowed in flight at once
+     */
+    public EmbeddingBatcher(String model, int batchSize, long maxWaitMs, int capacity, int parallelism) {
+        this.model = model;
+        this.batchSize = Math.max(1, batchSize);
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxWaitMs));
+        this.queue = new ArrayBlockingQueue<>(Math.max(this.batchSize, capacity));
+        for (int i = 0; i < Math.max(1, parallelism); i++) {
+            dispatchers.add(Thread.ofVirtual().name("embed-batch-", i).start(this::runDispatcher));
+        }
+    }
+
+    /**
+     * Queue a text for the next batch, blocking while the queue is full
+     */
+    public CompletableFuture<Embedding> submit(String text) throws InterruptedException {
+        CompletableFuture<Embedding> result = new CompletableFuture<>();
+        if (text == null || text.isEmpty()) {
+            result.complete(Embedding.EMPTY);
+            return result;
+        }
+        if (closed) {
+            throw new IllegalStateException("Embedding batcher is closed");
+        }
+        queue.put(new Request(text, result));
+        return result;
+    }
+
+    /**
+     * Embed one text through the batcher and wait for its vector
+     */
+    public Embedding embed(String text) throws InterruptedException {
+        return submit(text).join();
+    }
+
+    private void runDispatcher() {
+        try {
+            while (!closed || !queue.isEmpty()) {
+                Request first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                List<Request> batch = new ArrayList<>(batchSize);
+                batch.add(first);
+                long deadline = System.nanoTime() + maxWaitNanos;
+                while (batch.size() < batchSize) {
+                    long wait = deadline - System.nanoTime();
+                    Request next = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                send(batch);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void send(List<Request> batch) {
+        List<String> inputs = new ArrayList<>(batch.size());
+        for (Request request : batch) {
+            inputs.add(request.text());
+        }
+
+        long start = System.nanoTime();
+        List<Embedding> vectors;
+        try {
+            vectors = GenerateEmbeddings.getEmbeddings(model, inputs);
+        } catch (RuntimeException e) {
+            System.err.println("Error generating batch embeddings: " + e.getMessage());
+            vectors = Collections.nCopies(batch.size(), Embedding.EMPTY);
+        }
+        busyNanos.addAndGet(System.nanoTime() - start);
+        batches.incrementAndGet();
+        texts.addAndGet(batch.size());
+
+        // Every future completes, even when the service returned fewer vectors than texts
+        for (int i = 0; i < batch.size(); i++) {
+            batch.get(i).result().complete(i < vectors.size() ? vectors.get(i) : Embedding.EMPTY);
+        }
+    }
+
+    /**
+     * Send whatever is still queued and wait for the dispatchers to finish
+     */
+    public void close() throws InterruptedException {
+        closed = true;
+        for (Thread dispatcher : dispatchers) {
+            dispatcher.join();
+        }
+    }
+
+    public String report() {
+        long count = batches.get();
+        return String.format("embed batches: %d call(s), %d text(s), %.1f texts/call, %.1f ms/call",
+                count, texts.get(), count > 0 ? (double) texts.get() / count : 0,
+                count > 0 ? busyNanos.get() / 1_000_000.0 / count : 0);
+    }
+}
@@ -0,0 +1,183 @@
+package org.embeding;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Content-addressed cache of embedding vectors.
+ * Entries are keyed by the SHA-256 of the model name plus the exact text sent
+ * to the model. The first tier is an in-memory LRU bounded by a byte budget;
+ * the optional second tier stores one small file per vector under a directory
+ * so that vectors survive restarts.
+ */
+public class EmbeddingCache {
+    private static final long ENTRY_OVERHEAD_BYTES = 160; // key string, map entry, Embedding and array header
+
+    private final long maxBytes;
+    private final Path diskDir;
+    private final LinkedHashMap<String, Embedding> memory = new LinkedHashMap<>(1024, 0.75f, true);
+    private long memoryBytes;
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param maxBytes byte budget of the in-memory tier
+     * @param diskDir  directory of the on-disk tier, or null to keep vectors in memory only
+     */
+    public EmbeddingCache(long maxBytes, Path diskDir) {
+        this.maxBytes = Math.max(0, maxBytes);
+        this.diskDir = diskDir;
+        if (diskDir != null) {
+            try {
+                Files.createDirectories(diskDir);
+            } catch (IOException e) {
+                System.err.println("Embedding cache directory unavailable, using memory only: " + e.getMessage());
+            }
+        }
+    }
+
+    public static String key(String model, String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(model.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(text.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * @return the cached vector, or null on a miss
+     */
+    public Embedding get(String key) {
+        Embedding vector;
+        synchronized (memory) {
+            vector = memory.get(key);
+        }
+        if (vector != null) {
+            memoryHits.incrementAndGet();
+            return vector;
+        }
+
+        vector = readFromDisk(key);
+        if (vector != null) {
+            diskHits.incrementAndGet();
+            putInMemory(key, vector);
+            return vector;
+        }
+
+        misses.incrementAndGet();
+        return null;
+    }
+
+    public void put(String key, Embedding embedding) {
+        if (embedding == null || embedding.isEmpty()) {
+            return;
+        }
+        putInMemory(key, embedding);
+        writeToDisk(key, embedding);
+    }
+
+    private void putInMemory(String key, Embedding vector) {
+        long size = vector.dims() * 4L + ENTRY_OVERHEAD_BYTES;
+        synchronized (memory) {
+            Embedding previous = memory.put(key, vector);
+            if (previous != null) {
+                memoryBytes -= previous.dims() * 4L + ENTRY_OVERHEAD_BYTES;
+            }
+            memoryBytes += size;
+            // Evict least recently used entries until we are back under budget
+            Iterator<Map.Entry<String, Embedding>> it = memory.entrySet().iterator();
+            while (memoryBytes > maxBytes && it.hasNext()) {
+                Embedding evicted = it.next().getValue();
+                it.remove();
+                memoryBytes -= evicted.dims() * 4L + ENTRY_OVERHEAD_BYTES;
+            }
+        }
+    }
+
+    private Path diskPath(String key) {
+        // Two-character fan-out keeps directories small
+        return diskDir.resolve(key.substring(0, 2)).resolve(key + ".vec");
+    }
+
+    private Embedding readFromDisk(String key) {
+        if (diskDir == null) {
+            return null;
+        }
+        Path path = diskPath(key);
+        if (!Files.exists(path)) {
+            return null;
+        }
+        try (InputStream in = Files.newInputStream(path);
+             DataInputStream data = new DataInputStream(new BufferedInputStream(in))) {
+            float[] vector = new float[data.readInt()];
+            for (int i = 0; i < vector.length; i++) {
+                vector[i] = data.readFloat();
+            }
+            return Embedding.of(vector);
+        } catch (IOException e) {
+            System.err.println("Failed to read cached embedding " + key + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void writeToDisk(String key, Embedding vector) {
+        if (diskDir == null) {
+            return;
+        }
+        Path path = diskPath(key);
+        try {
+            Files.createDirectories(path.getParent());
+            // Write to a temp file and move it so readers never see a partial vector
+            Path tmp = Files.createTempFile(path.getParent(), key, ".tmp");
+            try (OutputStream out = Files.newOutputStream(tmp);
+                 DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out))) {
+                data.writeInt(vector.dims());
+                for (float value : vector.values()) {
+                    data.writeFloat(value);
+                }
+            }
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Failed to write cached embedding " + key + ": " + e.getMessage());
+        }
+    }
+
+    public double hitRate() {
+        long hits = memoryHits.get() + diskHits.get();
+        long total = hits + misses.get();
+        return total > 0 ? (double) hits / total : 0;
+    }
+
+    public String report() {
+        long entries;
+        long bytes;
+        synchronized (memory) {
+            entries = memory.size();
+            bytes = memoryBytes;
+        }
+        return String.format("embedding cache: %.1f%% hit rate (%d memory, %d disk, %d miss), %d entries, %.1f MB in memory",
+                hitRate() * 100, memoryHits.get(), diskHits.get(), misses.get(), entries, bytes / (1024.0 * 1024.0));
+    }
+}
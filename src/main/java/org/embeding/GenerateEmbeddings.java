@@ -5,7 +5,8 @@ import io.github.ollama4j.exceptions.OllamaBaseException;
 import io.github.ollama4j.models.embeddings.OllamaEmbedResponseModel;
 
 import java.io.IOException;
-import java.util.Arrays;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
@@ -15,6 +16,8 @@ public class GenerateEmbeddings {
     private static final int MAX_SIZE = 5000; // Maximum size to take from text
     private static String OLLAMA_HOST = "http://localhost:11434"; // Default value
     private static OllamaAPI ollamaAPI;
+    private static CircuitBreaker circuitBreaker;
+    private static EmbeddingCache cache;
 
     static {
         // Load configuration for Ollama endpoint from config.properties
@@ -31,61 +34,105 @@ public class GenerateEmbeddings {
                 }
                 input.close();
             }
+            circuitBreaker = new CircuitBreaker("ollama",
+                    Integer.parseInt(props.getProperty("ollama_failure_threshold", "3").trim()),
+                    Long.parseLong(props.getProperty("ollama_retry_after_ms", "10000").trim()));
+            String cacheDir = props.getProperty("embedding_cache_dir", "").trim();
+            cache = new EmbeddingCache(
+                    Long.parseLong(props.getProperty("embedding_cache_max_bytes", "67108864").trim()),
+                    cacheDir.isEmpty() ? null : Path.of(cacheDir));
 
             System.out.println("Connecting to Ollama at: " + OLLAMA_HOST);
             ollamaAPI = new OllamaAPI(OLLAMA_HOST);
         } catch (Exception e) {
             System.err.println("Error loading Ollama configuration: " + e.getMessage());
             ollamaAPI = new OllamaAPI(OLLAMA_HOST); // Fallback to default
+            circuitBreaker = new CircuitBreaker("ollama", 3, 10000);
+            cache = new EmbeddingCache(64L * 1024 * 1024, null);
         }
     }
 
+    public static CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public static EmbeddingCache getCache() {
+        return cache;
+    }
+
     /**
      * Generate embeddings for text by only using the first MAX_SIZE characters
      *
      * @param model The embedding model name to use
      * @param text The text to embed
-     * @return First embedding vector as a flat List<Double>
+     * @return First embedding vector, empty when it could not be generated
      */
-    public static List<Double> getEmbeddings(String model, String text) {
+    public static Embedding getEmbeddings(String model, String text) {
         if (text == null || text.isEmpty()) {
-            return Collections.emptyList();
+            return Embedding.EMPTY;
         }
+        return getEmbeddings(model, Collections.singletonList(text)).get(0);
+    }
 
-        try {
-            // Limit text size to prevent tokens overflow
-            String chunk = text.length() > MAX_SIZE ? text.substring(0, MAX_SIZE) : text;
-
-            // Check if Ollama is reachable
-            if (!checkOllamaAvailability()) {
-                System.err.println("Ollama service is not reachable at " + OLLAMA_HOST);
-                return Collections.emptyList();
-            }
+    /**
+     * Generate embeddings for several texts with a single embed call.
+     * Each text is cut to its first MAX_SIZE characters; texts already in the
+     * embedding cache are answered from it and not sent to Ollama.
+     *
+     * @param model The embedding model name to use
+     * @param texts The texts to embed
+     * @return One vector per input text, in the same order; empty for texts that are empty or failed
+     */
+    public static List<Embedding> getEmbeddings(String model, List<String> texts) {
+        List<Embedding> results = new ArrayList<>(Collections.nCopies(texts.size(), Embedding.EMPTY));
 
-            OllamaEmbedResponseModel response = ollamaAPI.embed(model, Arrays.asList(chunk));
-            if (response != null && !response.getEmbeddings().isEmpty()) {
-                // Return just the first embedding vector (we only send one chunk)
-                return response.getEmbeddings().get(0);
+        // Only send the non-empty, uncached texts, remembering where each one goes
+        List<String> chunks = new ArrayList<>();
+        List<String> keys = new ArrayList<>();
+        List<Integer> positions = new ArrayList<>();
+        for (int i = 0; i < texts.size(); i++) {
+            String text = texts.get(i);
+            if (text != null && !text.isEmpty()) {
+                // Limit text size to prevent tokens overflow
+                String chunk = text.length() > MAX_SIZE ? text.substring(0, MAX_SIZE) : text;
+                String key = EmbeddingCache.key(model, chunk);
+                Embedding cached = cache.get(key);
+                if (cached != null) {
+                    results.set(i, cached);
+                    continue;
+                }
+                chunks.add(chunk);
+                keys.add(key);
+                positions.add(i);
             }
+        }
+        if (chunks.isEmpty()) {
+            return results;
+        }
 
-            return Collections.emptyList();
-        } catch (Exception e) {
-            System.err.println("Error generating embeddings: " + e.getMessage());
-            return Collections.emptyList();
+        // Fail fast while the breaker is open instead of pinging Ollama before every call
+        if (!circuitBreaker.allowRequest()) {
+            System.err.println("Ollama service is not reachable at " + OLLAMA_HOST + " (circuit open)");
+            return results;
         }
-    }
 
-    /**
-     * Check if the Ollama service is available
-     *
-     * @return true if Ollama is reachable, false otherwise
-     */
-    private static boolean checkOllamaAvailability() {
         try {
-            return ollamaAPI.ping();
+            OllamaEmbedResponseModel response = ollamaAPI.embed(model, chunks);
+            if (response != null && response.getEmbeddings().size() == chunks.size()) {
+                for (int i = 0; i < chunks.size(); i++) {
+                    // Unbox the client's List<Double> once; everything downstream uses the float[]
+                    Embedding embedding = Embedding.of(response.getEmbeddings().get(i));
+                    results.set(positions.get(i), embedding);
+                    cache.put(keys.get(i), embedding);
+                }
+                circuitBreaker.recordSuccess();
+            } else {
+                circuitBreaker.recordFailure();
+            }
         } catch (Exception e) {
-            System.err.println("Ollama health check failed: " + e.getMessage());
-            return false;
+            System.err.println("Error generating embeddings: " + e.getMessage());
+            circuitBreaker.recordFailure();
         }
+        return results;
     }
 }
\ No newline at end of file
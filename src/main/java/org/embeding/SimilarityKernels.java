@@ -0,0 +1,61 @@
+package org.embeding;
+
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Dot product, cosine and L2 distance over float[] and int8 vectors.
+ * {@link #INSTANCE} is picked once at startup: the Vector API implementation
+ * when the JVM runs with --add-modules jdk.incubator.vector, the scalar loops
+ * otherwise or when similarity_kernels=scalar.
+ */
+public interface SimilarityKernels {
+    SimilarityKernels INSTANCE = select();
+
+    String name();
+
+    float dot(float[] a, int aOffset, float[] b, int bOffset, int length);
+
+    default float dot(float[] a, float[] b) {
+        return dot(a, 0, b, 0, a.length);
+    }
+
+    float cosine(float[] a, float[] b);
+
+    /**
+     * Squared Euclidean distance, enough for ranking
+     */
+    float l2Squared(float[] a, float[] b);
+
+    int dot(byte[] a, byte[] b);
+
+    float cosine(byte[] a, byte[] b);
+
+    int l2Squared(byte[] a, byte[] b);
+
+    private static SimilarityKernels select() {
+        String mode = "auto";
+        try (InputStream input = SimilarityKernels.class.getClassLoader().getResourceAsStream("config.properties")) {
+            if (input != null) {
+                Properties props = new Properties();
+                props.load(input);
+                mode = props.getProperty("similarity_kernels", mode).trim();
+            }
+        } catch (Exception e) {
+            System.err.println("Error loading similarity kernel configuration: " + e.getMessage());
+        }
+
+        SimilarityKernels kernels = new ScalarKernels();
+        if (!"scalar".equalsIgnoreCase(mode) && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                // Loaded reflectively: the class cannot even link without the incubator module
+                kernels = (SimilarityKernels) Class.forName("org.embeding.VectorApiKernels")
+                        .getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                System.err.println("Vector API kernels unavailable, using scalar: " + e);
+            }
+        }
+        System.out.println("Similarity kernels: " + kernels.name());
+        return kernels;
+    }
+}
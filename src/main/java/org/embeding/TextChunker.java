@@ -0,0 +1,45 @@
+package org.embeding;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Splits long page text into overlapping passages for embedding.
+ * Tokens are approximated by whitespace-separated words, which keeps every
+ * passage comfortably inside the model's context without needing its tokenizer.
+ */
+public class TextChunker {
+    private final int maxTokens;
+    private final int overlapTokens;
+    private final int maxChunks;
+
+    /**
+     * @param maxTokens     words per passage
+     * @param overlapTokens words shared by two consecutive passages
+     * @param maxChunks     upper bound of passages per text, the rest of the text is dropped
+     */
+    public TextChunker(int maxTokens, int overlapTokens, int maxChunks) {
+        this.maxTokens = Math.max(1, maxTokens);
+        this.overlapTokens = Math.max(0, Math.min(overlapTokens, this.maxTokens - 1));
+        this.maxChunks = Math.max(1, maxChunks);
+    }
+
+    public List<String> chunk(String text) {
+        if (text == null || text.isBlank()) {
+            return Collections.emptyList();
+        }
+        String[] words = text.trim().split("\\s+");
+        List<String> chunks = new ArrayList<>();
+        int stride = maxTokens - overlapTokens;
+        for (int start = 0; start < words.length && chunks.size() < maxChunks; start += stride) {
+            int end = Math.min(words.length, start + maxTokens);
+            chunks.add(String.join(" ", Arrays.asList(words).subList(start, end)));
+            if (end == words.length) {
+                break;
+            }
+        }
+        return chunks;
+    }
+}
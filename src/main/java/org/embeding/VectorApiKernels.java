@@ -0,0 +1,160 @@
+package org.embeding;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Kernels on jdk.incubator.vector at the CPU's preferred vector width.
+ * Only instantiated by {@link SimilarityKernels} when the incubator module is
+ * present. Int8 vectors are widened to ints lane by lane, which needs at least
+ * 256-bit vectors; narrower CPUs use the scalar int8 loops.
+ */
+class VectorApiKernels extends ScalarKernels {
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+    private static final boolean WIDE_INTS = IntVector.SPECIES_PREFERRED.vectorBitSize() >= 256;
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    // One byte per int lane, e.g. 8 bytes for 8 ints on AVX2
+    private static final VectorSpecies<Byte> BYTES = WIDE_INTS
+            ? VectorSpecies.of(byte.class, VectorShape.forBitSize(INTS.vectorBitSize() / 4))
+            : ByteVector.SPECIES_64;
+
+    @Override
+    public String name() {
+        return "vector (" + FLOATS.vectorBitSize() + "-bit)";
+    }
+
+    @Override
+    public float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        FloatVector acc = FloatVector.zero(FLOATS);
+        int bound = FLOATS.loopBound(length);
+        int i = 0;
+        for (; i < bound; i += FLOATS.length()) {
+            FloatVector va = FloatVector.fromArray(FLOATS, a, aOffset + i);
+            FloatVector vb = FloatVector.fromArray(FLOATS, b, bOffset + i);
+            acc = va.fma(vb, acc);
+        }
+        float sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public float cosine(float[] a, float[] b) {
+        FloatVector dotAcc = FloatVector.zero(FLOATS);
+        FloatVector normAAcc = FloatVector.zero(FLOATS);
+        FloatVector normBAcc = FloatVector.zero(FLOATS);
+        int bound = FLOATS.loopBound(a.length);
+        int i = 0;
+        for (; i < bound; i += FLOATS.length()) {
+            FloatVector va = FloatVector.fromArray(FLOATS, a, i);
+            FloatVector vb = FloatVector.fromArray(FLOATS, b, i);
+            dotAcc = va.fma(vb, dotAcc);
+            normAAcc = va.fma(va, normAAcc);
+            normBAcc = vb.fma(vb, normBAcc);
+        }
+        float dot = dotAcc.reduceLanes(VectorOperators.ADD);
+        float normA = normAAcc.reduceLanes(VectorOperators.ADD);
+        float normB = normBAcc.reduceLanes(VectorOperators.ADD);
+        for (; i < a.length; i++) {
+            dot += a[i] * b[i];
+            normA += a[i] * a[i];
+            normB += b[i] * b[i];
+        }
+        return normA == 0 || normB == 0 ? 0 : (float) (dot / Math.sqrt((double) normA * normB));
+    }
+
+    @Override
+    public float l2Squared(float[] a, float[] b) {
+        FloatVector acc = FloatVector.zero(FLOATS);
+        int bound = FLOATS.loopBound(a.length);
+        int i = 0;
+        for (; i < bound; i += FLOATS.length()) {
+            FloatVector diff = FloatVector.fromArray(FLOATS, a, i).sub(FloatVector.fromArray(FLOATS, b, i));
+            acc = diff.fma(diff, acc);
+        }
+        float sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < a.length; i++) {
+            float diff = a[i] - b[i];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    @Override
+    public int dot(byte[] a, byte[] b) {
+        if (!WIDE_INTS) {
+            return super.dot(a, b);
+        }
+        IntVector acc = IntVector.zero(INTS);
+        int bound = BYTES.loopBound(a.length);
+        int i = 0;
+        for (; i < bound; i += BYTES.length()) {
+            IntVector va = widen(a, i);
+            IntVector vb = widen(b, i);
+            acc = acc.add(va.mul(vb));
+        }
+        int sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    @Override
+    public float cosine(byte[] a, byte[] b) {
+        if (!WIDE_INTS) {
+            return super.cosine(a, b);
+        }
+        IntVector dotAcc = IntVector.zero(INTS);
+        IntVector normAAcc = IntVector.zero(INTS);
+        IntVector normBAcc = IntVector.zero(INTS);
+        int bound = BYTES.loopBound(a.length);
+        int i = 0;
+        for (; i < bound; i += BYTES.length()) {
+            IntVector va = widen(a, i);
+            IntVector vb = widen(b, i);
+            dotAcc = dotAcc.add(va.mul(vb));
+            normAAcc = normAAcc.add(va.mul(va));
+            normBAcc = normBAcc.add(vb.mul(vb));
+        }
+        int dot = dotAcc.reduceLanes(VectorOperators.ADD);
+        int normA = normAAcc.reduceLanes(VectorOperators.ADD);
+        int normB = normBAcc.reduceLanes(VectorOperators.ADD);
+        for (; i < a.length; i++) {
+            dot += a[i] * b[i];
+            normA += a[i] * a[i];
+            normB += b[i] * b[i];
+        }
+        return normA == 0 || normB == 0 ? 0 : (float) (dot / Math.sqrt((double) normA * normB));
+    }
+
+    @Override
+    public int l2Squared(byte[] a, byte[] b) {
+        if (!WIDE_INTS) {
+            return super.l2Squared(a, b);
+        }
+        IntVector acc = IntVector.zero(INTS);
+        int bound = BYTES.loopBound(a.length);
+        int i = 0;
+        for (; i < bound; i += BYTES.length()) {
+            IntVector diff = widen(a, i).sub(widen(b, i));
+            acc = acc.add(diff.mul(diff));
+        }
+        int sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < a.length; i++) {
+            int diff = a[i] - b[i];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    private static IntVector widen(byte[] array, int offset) {
+        return (IntVector) ByteVector.fromArray(BYTES, array, offset).convertShape(VectorOperators.B2I, INTS, 0);
+    }
+}
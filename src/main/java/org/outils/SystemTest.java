@@ -3,6 +3,7 @@ package org.outils;
 import org.db.ElasticsearchConnection;
 import org.db.IndexManager;
 import org.db.ElasticsearchService;
+import org.embeding.Embedding;
 import org.embeding.GenerateEmbeddings;
 import org.elbadry.SiteData;
 import org.elbadry.Crawler;
@@ -63,15 +64,15 @@ public class SystemTest {
     private static void testEmbeddingGeneration() {
         System.out.println("\n🧪 Testing embedding generation...");
         String testText = "This is a test text for embedding generation";
-        List<Double> embedding = GenerateEmbeddings.getEmbeddings("nomic-embed-text", testText);
+        Embedding embedding = GenerateEmbeddings.getEmbeddings("nomic-embed-text", testText);
 
         if (embedding == null || embedding.isEmpty()) {
             throw new RuntimeException("Embedding generation failed");
         }
 
-        if (embedding.size() != EMBEDDING_DIMENSION) {
+        if (embedding.dims() != EMBEDDING_DIMENSION) {
             throw new RuntimeException("Embedding dimension mismatch: expected " + EMBEDDING_DIMENSION +
-                    " but got " + embedding.size());
+                    " but got " + embedding.dims());
         }
         System.out.println("✅ Embedding generation tests passed");
     }
@@ -83,7 +84,7 @@ public class SystemTest {
         // Create test document
         String docId = "test_doc_" + UUID.randomUUID().toString().substring(0, 8);
         String testText = "This is a test document for storage and retrieval";
-        List<Double> embedding = GenerateEmbeddings.getEmbeddings("nomic-embed-text", testText);
+        Embedding embedding = GenerateEmbeddings.getEmbeddings("nomic-embed-text", testText);
         SiteData siteData = new SiteData(docId, "Test Document", testText, embedding);
 
         // Store document
@@ -161,7 +162,7 @@ public class SystemTest {
     private static void addTestDocument(ElasticsearchService service, String content, String title, String idPrefix)
             throws IOException {
         String docId = idPrefix + "_" + UUID.randomUUID().toString().substring(0, 8);
-        List<Double> embedding = GenerateEmbeddings.getEmbeddings("nomic-embed-text", content);
+        Embedding embedding = GenerateEmbeddings.getEmbeddings("nomic-embed-text", content);
         SiteData siteData = new SiteData(docId, title, content, embedding);
         Map<String, Object> dataMap = ObjectToMapConverter.convertToMap(siteData);
         service.storeData(docId, TEST_INDEX, dataMap);
@@ -0,0 +1,114 @@
+package org.symantiqusearch;
+
+import org.embeding.Embedding;
+import org.embeding.GenerateEmbeddings;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Compares the approximate kNN search against the exact script_score search
+ * on the same index: latency percentiles of both and recall@k of kNN, using
+ * the script_score ranking as ground truth. Needs Elasticsearch and Ollama
+ * running, like {@link SemanticSearchTest}.
+ * Usage: KnnSearchTest [k] [numCandidates] [repeats] [query...]
+ */
+public class KnnSearchTest {
+    private static final List<String> DEFAULT_QUERIES = Arrays.asList(
+            "Tell me about the blog",
+            "What projects does GeeksBlabla have?",
+            "How can I contribute to Geeksblabla?",
+            "annual conference in Darija",
+            "financial report",
+            "podcast episodes about cloud");
+
+    public static void main(String[] args) throws IOException {
+        int k = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        int numCandidates = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int repeats = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        List<String> queries = args.length > 3 ? Arrays.asList(args).subList(3, args.length) : DEFAULT_QUERIES;
+
+        SemanticSearchService searchService = new SemanticSearchService();
+        String index = loadIndexName();
+
+        List<Long> exactNanos = new ArrayList<>();
+        List<Long> knnNanos = new ArrayList<>();
+        double recallSum = 0;
+        int measured = 0;
+
+        for (String query : queries) {
+            Embedding qEmbed = GenerateEmbeddings.getEmbeddings("nomic-embed-text", query);
+            if (qEmbed.isEmpty()) {
+                System.err.println("Skipping query without embedding: " + query);
+                continue;
+            }
+
+            Map<String, Double> exact = Collections.emptyMap();
+            Map<String, Double> approx = Collections.emptyMap();
+            // First round warms up caches on both paths and is not timed
+            for (int r = 0; r <= repeats; r++) {
+                long start = System.nanoTime();
+                exact = searchService.scriptScoreSearch(qEmbed, index, k);
+                long exactTime = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                approx = searchService.knnSearch(qEmbed, index, k, numCandidates);
+                long knnTime = System.nanoTime() - start;
+
+                if (r > 0) {
+                    exactNanos.add(exactTime);
+                    knnNanos.add(knnTime);
+                }
+            }
+
+            Set<String> found = new HashSet<>(approx.keySet());
+            found.retainAll(exact.keySet());
+            double recall = exact.isEmpty() ? 1.0 : (double) found.size() / exact.size();
+            recallSum += recall;
+            measured++;
+            System.out.println(String.format("%-45s recall@%d=%.2f", query, k, recall));
+        }
+
+        if (measured == 0) {
+            System.out.println("No query could be embedded, is Ollama running?");
+            return;
+        }
+        System.out.println("\nindex=" + index + " k=" + k + " num_candidates=" + numCandidates + " queries=" + measured);
+        System.out.println("script_score " + percentiles(exactNanos));
+        System.out.println("knn          " + percentiles(knnNanos));
+        System.out.println(String.format("mean recall@%d: %.3f", k, recallSum / measured));
+    }
+
+    static String percentiles(List<Long> nanos) {
+        List<Long> sorted = new ArrayList<>(nanos);
+        Collections.sort(sorted);
+        return String.format("p50=%.1f ms p95=%.1f ms p99=%.1f ms",
+                percentile(sorted, 0.50), percentile(sorted, 0.95), percentile(sorted, 0.99));
+    }
+
+    private static double percentile(List<Long> sorted, double p) {
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        int i = (int) Math.ceil(p * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(i, sorted.size() - 1))) / 1_000_000.0;
+    }
+
+    static String loadIndexName() throws IOException {
+        Properties props = new Properties();
+        try (InputStream input = KnnSearchTest.class.getClassLoader().getResourceAsStream("config.properties")) {
+            if (input != null) {
+                props.load(input);
+            }
+        }
+        return props.getProperty("index_db", "my_index");
+    }
+}
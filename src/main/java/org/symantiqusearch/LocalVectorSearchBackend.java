@@ -0,0 +1,39 @@
+package org.symantiqusearch;
+
+import org.db.HnswIndex;
+import org.embeding.Embedding;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Semantic search served from an in-process {@link HnswIndex} instead of
+ * Elasticsearch, for low-latency deployments and test runs.
+ */
+public class LocalVectorSearchBackend implements VectorSearchBackend {
+    private final HnswIndex index;
+    private final int ef;
+
+    public LocalVectorSearchBackend(HnswIndex index, int ef) {
+        this.index = index;
+        this.ef = ef;
+    }
+
+    /**
+     * Memory-map a saved index; its vectors stay off-heap
+     */
+    public static LocalVectorSearchBackend open(Path path, int ef) throws IOException {
+        return new LocalVectorSearchBackend(HnswIndex.load(path, true), ef);
+    }
+
+    @Override
+    public Map<String, Double> search(Embedding qEmbed, int k) {
+        Map<String, Double> results = new LinkedHashMap<>();
+        for (HnswIndex.Result result : index.search(qEmbed.values(), k, ef)) {
+            results.put(result.id(), result.score());
+        }
+        return results;
+    }
+}
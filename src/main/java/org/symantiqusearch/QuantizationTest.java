@@ -0,0 +1,89 @@
+package org.symantiqusearch;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import org.db.ElasticsearchConnection;
+import org.db.IndexManager;
+import org.db.VectorIndexOptions;
+import org.embeding.Embedding;
+import org.embeding.GenerateEmbeddings;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Copies the configured (float) index into one index per quantized vector type
+ * and reports, for each, the estimated kNN memory footprint and recall@10
+ * with and without rescoring, using exact script_score on the float index as
+ * ground truth. The copies are deleted afterwards. Needs Elasticsearch and
+ * Ollama running, like {@link SemanticSearchTest}.
+ * Usage: QuantizationTest [type...]   (default: hnsw int8_hnsw int4_hnsw bbq_hnsw)
+ */
+public class QuantizationTest {
+    private static final int EMBEDDING_DIMENSION = 768;
+    private static final int K = 10;
+    private static final int NUM_CANDIDATES = 100;
+    private static final double RESCORE_OVERSAMPLE = 3.0; // knn_rescore_oversample of the rescored runs
+
+    public static void main(String[] args) throws IOException {
+        List<String> types = args.length > 0 ? Arrays.asList(args) : Arrays.asList("hnsw", "int8_hnsw", "int4_hnsw", "bbq_hnsw");
+        String source = KnnSearchTest.loadIndexName();
+        ElasticsearchClient client = ElasticsearchConnection.getClient();
+        IndexManager indexManager = new IndexManager();
+        SemanticSearchService searchService = new SemanticSearchService();
+        VectorIndexOptions base = VectorIndexOptions.fromConfig();
+
+        // Ground truth: exact top K on the source index
+        List<Embedding> queries = new ArrayList<>();
+        List<Set<String>> truth = new ArrayList<>();
+        for (String query : Arrays.asList("Tell me about the blog", "What projects does GeeksBlabla have?",
+                "How can I contribute to Geeksblabla?", "annual conference in Darija", "financial report")) {
+            Embedding qEmbed = GenerateEmbeddings.getEmbeddings("nomic-embed-text", query);
+            if (!qEmbed.isEmpty()) {
+                queries.add(qEmbed);
+                truth.add(searchService.scriptScoreSearch(qEmbed, source, K).keySet());
+            }
+        }
+        if (queries.isEmpty()) {
+            System.out.println("No query could be embedded, is Ollama running?");
+            return;
+        }
+
+        for (String type : types) {
+            VectorIndexOptions options = base.withType(type);
+            String copy = source + "_" + type;
+            indexManager.deleteIndex(copy);
+            indexManager.createIndex(copy, EMBEDDING_DIMENSION, options);
+            client.reindex(r -> r.source(s -> s.index(source)).dest(d -> d.index(copy)).refresh(true));
+            // Merge to one segment so the footprint and graph match a settled index
+            client.indices().forcemerge(f -> f.index(copy).maxNumSegments(1L));
+
+            double recall = 0;
+            double rescoredRecall = 0;
+            for (int i = 0; i < queries.size(); i++) {
+                recall += recall(truth.get(i), searchService.knnSearch(queries.get(i), copy, K, NUM_CANDIDATES, 0));
+                rescoredRecall += recall(truth.get(i),
+                        searchService.knnSearch(queries.get(i), copy, K, NUM_CANDIDATES, RESCORE_OVERSAMPLE));
+            }
+
+            indexManager.printVectorMemory(copy, EMBEDDING_DIMENSION, options);
+            System.out.println(String.format("  recall@%d=%.3f, with %.0fx rescoring=%.3f",
+                    K, recall / queries.size(), RESCORE_OVERSAMPLE, rescoredRecall / queries.size()));
+            indexManager.deleteIndex(copy);
+        }
+        ElasticsearchConnection.closeClient();
+    }
+
+    private static double recall(Set<String> expected, Map<String, Double> actual) {
+        if (expected.isEmpty()) {
+            return 1.0;
+        }
+        Set<String> found = new HashSet<>(actual.keySet());
+        found.retainAll(expected);
+        return (double) found.size() / expected.size();
+    }
+}
@@ -0,0 +1,65 @@
+package org.symantiqusearch;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Merges the ranked lists of several search legs into one
+ */
+public final class RankFusion {
+
+    private RankFusion() {
+    }
+
+    /**
+     * Reciprocal rank fusion: each document scores the sum of 1 / (k + rank)
+     * over the legs that returned it. Only ranks matter, so legs with
+     * incomparable scores (BM25, cosine) fuse without normalization.
+     *
+     * @param legs ranked results, best first
+     * @param k    damping constant, 60 in the original paper
+     */
+    public static Map<String, Double> reciprocalRank(List<Map<String, Double>> legs, int k, int size) {
+        Map<String, Double> fused = new HashMap<>();
+        for (Map<String, Double> leg : legs) {
+            int rank = 1;
+            for (String id : leg.keySet()) {
+                fused.merge(id, 1.0 / (k + rank), Double::sum);
+                rank++;
+            }
+        }
+        return top(fused, size);
+    }
+
+    /**
+     * Weighted sum of scores, each leg divided by its best score first
+     *
+     * @param weights one weight per leg
+     */
+    public static Map<String, Double> weighted(List<Map<String, Double>> legs, List<Double> weights, int size) {
+        Map<String, Double> fused = new HashMap<>();
+        for (int i = 0; i < legs.size(); i++) {
+            Map<String, Double> leg = legs.get(i);
+            double max = leg.values().stream().mapToDouble(Double::doubleValue).max().orElse(0);
+            if (max <= 0) {
+                continue;
+            }
+            double weight = weights.get(i);
+            leg.forEach((id, score) -> fused.merge(id, weight * score / max, Double::sum));
+        }
+        return top(fused, size);
+    }
+
+    private static Map<String, Double> top(Map<String, Double> scores, int size) {
+        List<Map.Entry<String, Double>> entries = new ArrayList<>(scores.entrySet());
+        entries.sort(Map.Entry.<String, Double>comparingByValue().reversed());
+        Map<String, Double> results = new LinkedHashMap<>();
+        for (Map.Entry<String, Double> entry : entries.subList(0, Math.min(size, entries.size()))) {
+            results.put(entry.getKey(), entry.getValue());
+        }
+        return results;
+    }
+}
@@ -0,0 +1,21 @@
+package org.symantiqusearch;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+
+/**
+ * Ranked results plus how long each search leg took
+ *
+ * @param legMillis time per leg that ran ("vector", "lexical"), in run order
+ * @param timedOut  legs cut off by the latency budget; they add no results
+ */
+public record SearchResult(Map<String, Double> results, Map<String, Long> legMillis, Set<String> timedOut) {
+
+    public String timings() {
+        StringJoiner joiner = new StringJoiner(", ");
+        legMillis.forEach((leg, millis) ->
+                joiner.add(leg + " " + millis + " ms" + (timedOut.contains(leg) ? " (timed out)" : "")));
+        return joiner.toString();
+    }
+}
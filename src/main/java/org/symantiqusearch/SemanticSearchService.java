@@ -1,6 +1,8 @@
 package org.symantiqusearch;
 
 import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.query_dsl.ChildScoreMode;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
 import co.elastic.clients.elasticsearch.core.SearchResponse;
 import co.elastic.clients.elasticsearch.core.search.Hit;
 import co.elastic.clients.elasticsearch.core.SearchRequest;
@@ -8,69 +10,356 @@ import co.elastic.clients.elasticsearch.core.search.ScoreMode;
 import co.elastic.clients.json.JsonData;
 import org.db.ElasticsearchConnection;
 import org.db.ElasticsearchService;
+import org.embeding.Embedding;
 import org.embeding.GenerateEmbeddings;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class SemanticSearchService {
     private final ElasticsearchService service;
     private final ElasticsearchClient client;
     private static final double MIN_SCORE_THRESHOLD = 0.7; // Only return results above this threshold
+    private static final int RESULT_SIZE = 20;
+    private final boolean passageSearch; // score pages by their best passage (chunked embedding mode)
+    private final String searchMode; // script_score (exact, brute force) or knn (approximate, HNSW)
+    private final int numCandidates;
+    private final double rescoreOversample; // > 1 rescores k * oversample kNN hits on full-precision vectors
+    private final String similarity; // vector_similarity the embedding fields are indexed with
+    private final VectorSearchBackend backend; // null when Elasticsearch serves the searches
+    private final boolean hybrid; // also run a lexical match and fuse both rankings
+    private final String fusion; // rrf or weighted
+    private final int rrfK;
+    private final double vectorWeight; // weighted fusion: share of the vector leg, the lexical leg gets the rest
+    private final long budgetMs; // latency budget shared by both legs of a hybrid search
+    private static final ExecutorService LEGS = Executors.newVirtualThreadPerTaskExecutor();
 
     public SemanticSearchService() {
-        this.service = new ElasticsearchService();
-        this.client = ElasticsearchConnection.getClient();
+        this(null);
+    }
+
+    /**
+     * @param backend backend to serve searches from instead of Elasticsearch; with null,
+     *                search_mode decides (search_mode=local maps the index at local_index_path)
+     */
+    public SemanticSearchService(VectorSearchBackend backend) {
+        Properties props = new Properties();
+        try (InputStream input = getClass().getClassLoader().getResourceAsStream("config.properties")) {
+            if (input != null) {
+                props.load(input);
+            }
+        } catch (IOException e) {
+            System.err.println("Error loading configuration: " + e.getMessage());
+        }
+        this.passageSearch = "chunk".equalsIgnoreCase(props.getProperty("embedding_mode", "truncate").trim());
+        this.searchMode = props.getProperty("search_mode", "script_score").trim().toLowerCase();
+        this.numCandidates = Integer.parseInt(props.getProperty("knn_num_candidates", "100").trim());
+        this.rescoreOversample = Double.parseDouble(props.getProperty("knn_rescore_oversample", "0").trim());
+        this.similarity = props.getProperty("vector_similarity", "cosine").trim().toLowerCase();
+        this.hybrid = Boolean.parseBoolean(props.getProperty("hybrid_search", "false").trim());
+        this.fusion = props.getProperty("hybrid_fusion", "rrf").trim().toLowerCase();
+        this.rrfK = Integer.parseInt(props.getProperty("hybrid_rrf_k", "60").trim());
+        this.vectorWeight = Double.parseDouble(props.getProperty("hybrid_vector_weight", "0.5").trim());
+        this.budgetMs = Long.parseLong(props.getProperty("search_budget_ms", "1000").trim());
+
+        if (backend == null && "local".equals(searchMode)) {
+            String path = props.getProperty("local_index_path", "").trim();
+            try {
+                backend = LocalVectorSearchBackend.open(Path.of(path),
+                        Integer.parseInt(props.getProperty("local_index_ef", "100").trim()));
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Could not open local vector index '" + path + "', using Elasticsearch: " + e.getMessage());
+            }
+        }
+        this.backend = backend;
+        // Only connect to Elasticsearch when it serves the searches
+        this.service = backend == null ? new ElasticsearchService() : null;
+        this.client = backend == null ? ElasticsearchConnection.getClient() : null;
     }
 
     public Map<String, Double> semanticSearch(String query, String index) throws IOException {
+        if (hybrid && client != null) {
+            return search(query, index).results();
+        }
         // Generate query embedding - updated to work with flattened embeddings
-        List<Double> qEmbed = GenerateEmbeddings.getEmbeddings("nomic-embed-text", query);
+        return semanticSearch(GenerateEmbeddings.getEmbeddings("nomic-embed-text", query), index);
+    }
+
+    /**
+     * Search with per-leg timings. With hybrid_search the vector search and a
+     * lexical match on title and page text run in parallel under one latency
+     * budget (search_budget_ms), and their rankings are fused with reciprocal
+     * rank fusion or a weighted score. Vector hits under MIN_SCORE_THRESHOLD are
+     * kept only when the lexical leg found them too, so exact names (people,
+     * products, error codes) no longer come back empty.
+     */
+    public SearchResult search(String query, String index) {
+        Map<String, Long> durations = new ConcurrentHashMap<>();
+        if (!hybrid || client == null) {
+            long start = System.nanoTime();
+            Map<String, Double> results;
+            try {
+                results = semanticSearch(query, index);
+            } catch (IOException e) {
+                System.err.println("Vector search failed: " + e.getMessage());
+                results = Collections.emptyMap();
+            }
+            durations.put("vector", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            return new SearchResult(results, new LinkedHashMap<>(durations), Set.of());
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budgetMs);
+        Future<Map<String, Double>> vectorLeg = LEGS.submit(() -> timed("vector", durations,
+                () -> vectorRanking(GenerateEmbeddings.getEmbeddings("nomic-embed-text", query), index)));
+        Future<Map<String, Double>> lexicalLeg = LEGS.submit(() -> timed("lexical", durations,
+                () -> lexicalSearch(query, index, RESULT_SIZE)));
+
+        Set<String> timedOut = new LinkedHashSet<>();
+        Map<String, Double> vector = await("vector", vectorLeg, deadline, timedOut);
+        Map<String, Double> lexical = await("lexical", lexicalLeg, deadline, timedOut);
+
+        Map<String, Double> confident = new LinkedHashMap<>();
+        vector.forEach((id, score) -> {
+            if (score >= MIN_SCORE_THRESHOLD || lexical.containsKey(id)) {
+                confident.put(id, score);
+            }
+        });
+        Map<String, Double> results = "weighted".equals(fusion)
+                ? RankFusion.weighted(List.of(confident, lexical), List.of(vectorWeight, 1 - vectorWeight), RESULT_SIZE)
+                : RankFusion.reciprocalRank(List.of(confident, lexical), rrfK, RESULT_SIZE);
+
+        Map<String, Long> legMillis = new LinkedHashMap<>();
+        for (String leg : List.of("vector", "lexical")) {
+            legMillis.put(leg, durations.getOrDefault(leg, budgetMs));
+        }
+        return new SearchResult(results, legMillis, timedOut);
+    }
+
+    private interface SearchLeg {
+        Map<String, Double> run() throws IOException;
+    }
+
+    private static Map<String, Double> timed(String leg, Map<String, Long> durations, SearchLeg search)
+            throws IOException {
+        long start = System.nanoTime();
+        try {
+            return search.run();
+        } finally {
+            durations.put(leg, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+    }
+
+    private static Map<String, Double> await(String leg, Future<Map<String, Double>> future, long deadline,
+                                             Set<String> timedOut) {
+        try {
+            return future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            timedOut.add(leg);
+        } catch (ExecutionException e) {
+            System.err.println("Hybrid search " + leg + " leg failed: " + e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return Collections.emptyMap();
+    }
+
+    /**
+     * BM25 match on the title (boosted) and the page text
+     *
+     * @return the top documents by BM25 score, best first
+     */
+    Map<String, Double> lexicalSearch(String query, String index, int size) throws IOException {
+        SearchResponse<Map> response = client.search(s -> s
+                        .index(index)
+                        .size(size)
+                        .timeout(budgetMs + "ms")
+                        .source(src -> src.fetch(false))
+                        .query(q -> q.multiMatch(m -> m
+                                .query(query)
+                                .fields("title^2", "scrapedData"))),
+                Map.class);
+
+        Map<String, Double> results = new LinkedHashMap<>();
+        for (Hit<Map> hit : response.hits().hits()) {
+            results.put(hit.id(), hit.score());
+        }
+        return results;
+    }
+
+    /**
+     * Vector ranking from the configured backend or search_mode, without threshold
+     */
+    private Map<String, Double> vectorRanking(Embedding qEmbed, String index) throws IOException {
+        if (qEmbed.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        if (backend != null) {
+            return backend.search(qEmbed, RESULT_SIZE);
+        }
+        return "knn".equals(searchMode)
+                ? knnSearch(qEmbed, index, RESULT_SIZE, numCandidates)
+                // Exact scoring of every document with a script_score query
+                : scriptScoreSearch(qEmbed, index, RESULT_SIZE);
+    }
+
+    /**
+     * Search with an already embedded query
+     */
+    public Map<String, Double> semanticSearch(Embedding qEmbed, String index) throws IOException {
         if (qEmbed.isEmpty()) {
             return Collections.emptyMap();
         }
 
+        if (backend != null) {
+            return aboveThreshold(backend.search(qEmbed, RESULT_SIZE));
+        }
+
         try {
-            // First attempt: Use script_score query for more efficient vector search
-            return performScriptScoreSearch(qEmbed, index);
+            return aboveThreshold(vectorRanking(qEmbed, index));
         } catch (Exception e) {
-            System.out.println("Script score search failed, falling back to client-side calculation: " + e.getMessage());
+            System.out.println("Elasticsearch vector search failed, falling back to client-side calculation: " + e.getMessage());
             // Fallback to client-side calculation
             return performClientSideSearch(qEmbed, index);
         }
     }
 
+    private static Map<String, Double> aboveThreshold(Map<String, Double> ranked) {
+        Map<String, Double> results = new LinkedHashMap<>();
+        ranked.forEach((id, score) -> {
+            if (score >= MIN_SCORE_THRESHOLD) {
+                results.put(id, score);
+            }
+        });
+        return results;
+    }
 
-
-    // In SemanticSearchService.java, update the script score query:
-
-    private Map<String, Double> performScriptScoreSearch(List<Double> qEmbed, String index) throws IOException {
+    /**
+     * Exact search: score every document with the index's similarity in a
+     * script_score query. In chunked mode each page scores as its best passage.
+     *
+     * @return the top documents by cosine similarity, best first, without threshold
+     */
+    Map<String, Double> scriptScoreSearch(Embedding qEmbed, String index, int size) throws IOException {
         SearchResponse<Map> response = client.search(s -> s
                         .index(index)
-                        .size(20)
-                        .query(q -> q
-                                .scriptScore(ss -> ss
-                                        .query(sq -> sq.matchAll(m -> m))
-                                        .script(sc -> sc
-                                                .source("cosineSimilarity(params.query_vector, 'embedding') + 1.0")
-                                                .params("query_vector", JsonData.of(qEmbed)))
-                                )
-                        ),
+                        .size(size)
+                        .source(src -> src.filter(f -> f.excludes("passages", "embedding")))
+                        .query(exactScoreQuery(qEmbed)),
                 Map.class);
 
         Map<String, Double> results = new LinkedHashMap<>();
         for (Hit<Map> hit : response.hits().hits()) {
-            // Convert score from ES (1.0-2.0 range) back to 0.0-1.0 range
-            double normalizedScore = hit.score() - 1.0;
-            if (normalizedScore >= MIN_SCORE_THRESHOLD) {
-                results.put(hit.id(), normalizedScore);
-            }
+            results.put(hit.id(), toCosine(similarity, hit.score()));
         }
         return results;
     }
 
+    /**
+     * Score over the full-precision vectors, per page or per best passage, as
+     * kNN scores the index's similarity
+     */
+    private Query exactScoreQuery(Embedding qEmbed) {
+        String field = passageSearch ? "passages.embedding" : "embedding";
+        Query scriptScore = Query.of(q -> q
+                .scriptScore(ss -> ss
+                        .query(sq -> sq.matchAll(m -> m))
+                        .script(sc -> sc
+                                .source(scoreScript(similarity, field))
+                                // Serialized from the float[] when the request is written
+                                .params("query_vector", JsonData.of(qEmbed)))));
+        return passageSearch
+                ? Query.of(q -> q.nested(n -> n.path("passages").scoreMode(ChildScoreMode.Max).query(scriptScore)))
+                : scriptScore;
+    }
+
+    Map<String, Double> knnSearch(Embedding qEmbed, String index, int k, int candidates) throws IOException {
+        return knnSearch(qEmbed, index, k, candidates, rescoreOversample);
+    }
+
+    /**
+     * Approximate search with the native kNN option on the HNSW-indexed vectors.
+     * In chunked mode the nested passage vectors are searched and each page
+     * scores as its best passage. With a quantized index, oversample > 1 fetches
+     * k * oversample hits and rescores them on the full-precision vectors.
+     *
+     * @return the top k documents by cosine similarity, best first, without threshold
+     */
+    Map<String, Double> knnSearch(Embedding qEmbed, String index, int k, int candidates, double oversample)
+            throws IOException {
+        List<Float> queryVector = qEmbed.toFloatList();
+        boolean rescore = oversample > 1;
+        int window = rescore ? (int) Math.ceil(k * oversample) : k;
+
+        SearchResponse<Map> response = client.search(s -> {
+                    s.index(index)
+                            .size(k)
+                            .source(src -> src.filter(f -> f.excludes("passages", "embedding")))
+                            .knn(kn -> kn
+                                    .field(passageSearch ? "passages.embedding" : "embedding")
+                                    .queryVector(queryVector)
+                                    .k(window)
+                                    .numCandidates(Math.max(window, candidates)));
+                    if (rescore) {
+                        // Replace the quantized scores with exact ones for the top window
+                        s.rescore(r -> r
+                                .windowSize(window)
+                                .query(rq -> rq
+                                        .query(exactScoreQuery(qEmbed))
+                                        .queryWeight(0.0)
+                                        .rescoreQueryWeight(1.0)));
+                    }
+                    return s;
+                },
+                Map.class);
+
+        Map<String, Double> results = new LinkedHashMap<>();
+        for (Hit<Map> hit : response.hits().hits()) {
+            // The rescore script scores like kNN does
+            results.put(hit.id(), toCosine(similarity, hit.score()));
+        }
+        return results;
+    }
+
+    /**
+     * Painless script scoring a vector field the way kNN scores the similarity
+     * (score scripts must not return negative scores)
+     */
+    static String scoreScript(String similarity, String field) {
+        String args = "params.query_vector, '" + field + "'";
+        return switch (similarity) {
+            case "l2_norm" -> "1 / (1 + Math.pow(l2norm(" + args + "), 2))";
+            case "dot_product" -> "(1 + dotProduct(" + args + ")) / 2";
+            case "max_inner_product" -> "double d = dotProduct(" + args + "); return d < 0 ? 1 / (1 - d) : d + 1;";
+            default -> "(1 + cosineSimilarity(" + args + ")) / 2";
+        };
+    }
+
+    /**
+     * Cosine similarity back from a kNN or {@link #scoreScript} score, which
+     * MIN_SCORE_THRESHOLD applies to. Ollama's embed endpoint returns unit
+     * vectors, so a dot product is the cosine and a squared L2 distance is
+     * 2 - 2 * cosine.
+     */
+    static double toCosine(String similarity, double score) {
+        return switch (similarity) {
+            case "l2_norm" -> 1 - (1 / score - 1) / 2;
+            case "max_inner_product" -> score >= 1 ? score - 1 : 1 - 1 / score;
+            default -> 2 * score - 1;
+        };
+    }
+
     // And update the client-side search to handle flat embeddings:
-    private Map<String, Double> performClientSideSearch(List<Double> qEmbed, String index) throws IOException {
+    private Map<String, Double> performClientSideSearch(Embedding qEmbed, String index) throws IOException {
         // Get documents from Elasticsearch with a higher limit but not ridiculous
         SearchResponse<Map> response = client.search(s -> s
                         .index(index)
@@ -85,9 +374,9 @@ public class SemanticSearchService {
             if (source != null && source.containsKey("embedding")) {
                 try {
                     @SuppressWarnings("unchecked")
-                    List<Double> docEmbedding = (List<Double>) source.get("embedding");
-                    if (docEmbedding != null && !docEmbedding.isEmpty()) {
-                        double score = cosineSimilarity(qEmbed, docEmbedding);
+                    Embedding docEmbedding = Embedding.of((List<Number>) source.get("embedding"));
+                    if (!docEmbedding.isEmpty()) {
+                        double score = Math.max(qEmbed.cosine(docEmbedding), bestPassageScore(qEmbed, source));
                         if (score >= MIN_SCORE_THRESHOLD) {
                             scoredResults.put(hit.id(), score);
                         }
@@ -107,16 +396,18 @@ public class SemanticSearchService {
                         LinkedHashMap::putAll);
     }
 
-    private double cosineSimilarity(List<Double> v1, List<Double> v2) {
-        if (v1.size() != v2.size()) {
+    @SuppressWarnings("unchecked")
+    private double bestPassageScore(Embedding qEmbed, Map<String, Object> source) {
+        Object passages = source.get("passages");
+        if (!(passages instanceof List<?> list)) {
             return 0;
         }
-        double dot = 0, normA = 0, normB = 0;
-        for (int i = 0; i < v1.size(); i++) {
-            dot += v1.get(i) * v2.get(i);
-            normA += Math.pow(v1.get(i), 2);
-            normB += Math.pow(v2.get(i), 2);
+        double best = 0;
+        for (Object passage : list) {
+            if (passage instanceof Map<?, ?> map && map.get("embedding") instanceof List<?> embedding && !embedding.isEmpty()) {
+                best = Math.max(best, qEmbed.cosine(Embedding.of((List<Number>) embedding)));
+            }
         }
-        return dot / (Math.sqrt(normA) * Math.sqrt(normB));
+        return best;
     }
 }
\ No newline at end of file
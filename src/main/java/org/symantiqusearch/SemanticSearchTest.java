@@ -1,5 +1,7 @@
 package org.symantiqusearch;
 
+import org.embeding.GenerateEmbeddings;
+
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
@@ -37,6 +39,10 @@ public class SemanticSearchTest {
                 testQuery(searchService, customQuery, index);
             }
 
+            // Repeated queries are answered from the embedding cache
+            testQuery(searchService, "elazizi ?", index);
+            System.out.println("\n" + GenerateEmbeddings.getCache().report());
+
         } catch (IOException e) {
             System.err.println("Error during semantic search test: " + e.getMessage());
             e.printStackTrace();
@@ -0,0 +1,16 @@
+package org.symantiqusearch;
+
+import org.embeding.Embedding;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * A place semantic search can look up the documents closest to a query vector
+ */
+public interface VectorSearchBackend {
+    /**
+     * @return up to k document ids with their cosine similarity, best first
+     */
+    Map<String, Double> search(Embedding qEmbed, int k) throws IOException;
+}